@@ -0,0 +1,130 @@
+package at.favre.tools.apksigner.benchmark;
+
+import at.favre.tools.apksigner.signing.AndroidApkSigner;
+import at.favre.tools.apksigner.signing.AndroidApkSignerVerify;
+import at.favre.tools.apksigner.signing.SigningConfigGen;
+import at.favre.tools.apksigner.signing.ZipAlignExecutor;
+import at.favre.tools.apksigner.signing.ZipAligner;
+import at.favre.tools.apksigner.ui.Arg;
+import at.favre.tools.apksigner.ui.CLIParser;
+import at.favre.tools.apksigner.util.CmdUtil;
+import at.favre.tools.apksigner.util.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end cost of the per-apk steps of the tool on synthetic apks of different size and entry count. Every
+ * invocation processes the whole file, so single shot time is measured.
+ * <p>
+ * Synthetic apks are cached in the folder given by the system property <code>benchmark.apkDir</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ApkBenchmark {
+    @Param({"1", "32", "1024"})
+    public int sizeMb;
+
+    @Param({"10", "1000", "50000"})
+    public int entries;
+
+    private File workDir;
+    private File unsignedApk;
+    private File alignedApk;
+    private File signedApk;
+    private File outApk;
+    private SigningConfigGen signingConfigGen;
+    private AndroidApkSigner signer;
+    private ZipAlignExecutor zipAlignExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File apkDir = new File(System.getProperty("benchmark.apkDir", new File(System.getProperty("java.io.tmpdir"), "uber-apk-signer-benchmark").getPath()));
+        unsignedApk = SyntheticApk.create(apkDir, sizeMb, entries);
+
+        workDir = Files.createTempDirectory("uapksigner-bench-").toFile();
+        alignedApk = new File(workDir, "aligned.apk");
+        signedApk = new File(workDir, "signed.apk");
+        outApk = new File(workDir, "out.apk");
+
+        Arg arg = CLIParser.parse(new String[]{"-a", unsignedApk.getAbsolutePath(), "--zipAlignExternal"});
+        signingConfigGen = new SigningConfigGen(arg.signArgsList, arg.ksIsDebug);
+        signer = new AndroidApkSigner(signingConfigGen.signingConfig, null);
+        zipAlignExecutor = new ZipAlignExecutor(arg);
+
+        new ZipAligner().align(unsignedApk, alignedApk);
+        signer.sign(alignedApk, signedApk);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        zipAlignExecutor.cleanUp();
+        signingConfigGen.cleanUp();
+        FileUtil.removeRecursive(workDir.toPath());
+    }
+
+    @Benchmark
+    public String checksum() {
+        return FileUtil.createChecksum(unsignedApk, "SHA-256");
+    }
+
+    @Benchmark
+    public ZipAligner.Result zipAlign() throws Exception {
+        return new ZipAligner().align(unsignedApk, outApk);
+    }
+
+    @Benchmark
+    public CmdUtil.Result zipAlignExternal() {
+        outApk.delete();
+        CmdUtil.Result result = CmdUtil.runCmd(CmdUtil.concat(zipAlignExecutor.getZipAlignExecutable(),
+                new String[]{"-p", "4", unsignedApk.getAbsolutePath(), outApk.getAbsolutePath()}));
+        if (!result.success()) {
+            throw new IllegalStateException("zipalign failed: " + result.out);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public ZipAligner.VerifyResult zipAlignVerify() throws Exception {
+        return new ZipAligner().verify(signedApk, true);
+    }
+
+    @Benchmark
+    public File sign() throws Exception {
+        signer.sign(alignedApk, outApk);
+        return outApk;
+    }
+
+    @Benchmark
+    public File alignAndSign() throws Exception {
+        signer.sign(unsignedApk, outApk, true);
+        return outApk;
+    }
+
+    @Benchmark
+    public AndroidApkSignerVerify.Result verify() throws Exception {
+        AndroidApkSignerVerify.Result result = new AndroidApkSignerVerify().verify(signedApk, null, null, null, false);
+        if (!result.verified) {
+            throw new IllegalStateException("verification failed: " + result.errors);
+        }
+        return result;
+    }
+}
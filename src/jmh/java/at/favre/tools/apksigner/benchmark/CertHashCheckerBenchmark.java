@@ -0,0 +1,44 @@
+package at.favre.tools.apksigner.benchmark;
+
+import at.favre.tools.apksigner.signing.AndroidApkSignerVerify;
+import at.favre.tools.apksigner.signing.CertHashChecker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of matching the certificate hashes of a verified apk against the ones passed with <code>--verifySha256</code>;
+ * independent of apk size, so a signed test apk is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CertHashCheckerBenchmark {
+    private AndroidApkSignerVerify.Result verifyResult;
+    private String[] hashes;
+
+    @Setup
+    public void setUp() throws Exception {
+        File apk = new File(getClass().getClassLoader().getResource("test-apks-signed/app-first-debug.apk").getFile());
+        verifyResult = new AndroidApkSignerVerify().verify(apk, null, null, null, false);
+        hashes = verifyResult.certInfoList.stream().map(certInfo -> certInfo.getCertSha256().toUpperCase()).toArray(String[]::new);
+    }
+
+    @Benchmark
+    public CertHashChecker.Result check() {
+        return new CertHashChecker().check(verifyResult, hashes);
+    }
+}
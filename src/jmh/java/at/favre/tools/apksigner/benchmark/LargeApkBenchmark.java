@@ -0,0 +1,117 @@
+package at.favre.tools.apksigner.benchmark;
+
+import at.favre.tools.apksigner.signing.AndroidApkSigner;
+import at.favre.tools.apksigner.signing.AndroidApkSignerVerify;
+import at.favre.tools.apksigner.signing.SigningConfigGen;
+import at.favre.tools.apksigner.signing.ZipAligner;
+import at.favre.tools.apksigner.ui.Arg;
+import at.favre.tools.apksigner.ui.CLIParser;
+import at.favre.tools.apksigner.util.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aligns, signs (all schemes including v4) and verifies a multi GB synthetic apk in a fork limited to 256 MiB heap, to
+ * show that the heap needed does not grow with the apk size. An {@link OutOfMemoryError} fails the run; the peak heap
+ * usage of every iteration is printed.
+ * <p>
+ * Needs about 4x the apk size of free disk space. Synthetic apks are cached in the folder given by the system property
+ * <code>benchmark.apkDir</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+public class LargeApkBenchmark {
+    @Param({"2048"})
+    public int sizeMb;
+
+    @Param({"200"})
+    public int entries;
+
+    private File workDir;
+    private File unsignedApk;
+    private File alignedApk;
+    private File signedApk;
+    private File outApk;
+    private SigningConfigGen signingConfigGen;
+    private AndroidApkSigner signer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File apkDir = new File(System.getProperty("benchmark.apkDir", new File(System.getProperty("java.io.tmpdir"), "uber-apk-signer-benchmark").getPath()));
+        unsignedApk = SyntheticApk.create(apkDir, sizeMb, entries);
+
+        workDir = Files.createTempDirectory("uapksigner-large-bench-").toFile();
+        alignedApk = new File(workDir, "aligned.apk");
+        signedApk = new File(workDir, "signed.apk");
+        outApk = new File(workDir, "out.apk");
+
+        Arg arg = CLIParser.parse(new String[]{"-a", unsignedApk.getAbsolutePath()});
+        signingConfigGen = new SigningConfigGen(arg.signArgsList, arg.ksIsDebug);
+        signer = new AndroidApkSigner(signingConfigGen.signingConfig, null);
+
+        new ZipAligner().align(unsignedApk, alignedApk);
+        signer.sign(alignedApk, signedApk);
+    }
+
+    @TearDown(Level.Iteration)
+    public void printPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+                pool.resetPeakUsage();
+            }
+        }
+        System.out.println(String.format(Locale.US, "peak heap: %.1f MiB (max %.1f MiB)", peak / (1024.0 * 1024.0),
+                Runtime.getRuntime().maxMemory() / (1024.0 * 1024.0)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        signingConfigGen.cleanUp();
+        FileUtil.removeRecursive(workDir.toPath());
+    }
+
+    @Benchmark
+    public ZipAligner.Result zipAlign() throws Exception {
+        return new ZipAligner().align(unsignedApk, outApk);
+    }
+
+    @Benchmark
+    public File sign() throws Exception {
+        signer.sign(alignedApk, outApk);
+        return outApk;
+    }
+
+    @Benchmark
+    public AndroidApkSignerVerify.Result verify() throws Exception {
+        AndroidApkSignerVerify.Result result = new AndroidApkSignerVerify().verify(signedApk, null, null, null, false);
+        if (!result.verified) {
+            throw new IllegalStateException("verification failed: " + result.errors);
+        }
+        return result;
+    }
+}
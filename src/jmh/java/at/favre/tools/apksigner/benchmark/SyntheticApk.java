@@ -0,0 +1,132 @@
+package at.favre.tools.apksigner.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Creates unsigned, unaligned apks of a given size and entry count. The entries of a real (tiny) apk are copied
+ * first, so the manifest can be parsed by the signer, then synthetic entries are added until both targets are
+ * reached: every 4th entry is deflated text, the rest is stored random data, half of it as native libraries to
+ * exercise page alignment.
+ * <p>
+ * Generated files are deterministic and reused if they already exist, since creating the 1 GiB variants takes a
+ * while.
+ */
+final class SyntheticApk {
+    private static final String TEMPLATE_APK = "test-apks-unsigned/app-first-release-unsigned.apk";
+    private static final int MAX_CHUNK = 1024 * 1024;
+
+    private SyntheticApk() {
+    }
+
+    static File create(File dir, int sizeMb, int entryCount) throws IOException {
+        File apk = new File(dir, "synthetic-" + sizeMb + "mb-" + entryCount + ".apk");
+        if (apk.isFile()) {
+            return apk;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+
+        File tmp = File.createTempFile("synthetic-", ".part", dir);
+        try {
+            write(tmp, (long) sizeMb * 1024 * 1024, entryCount);
+            Files.move(tmp.toPath(), apk.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+        return apk;
+    }
+
+    private static void write(File target, long targetSize, int entryCount) throws IOException {
+        Random random = new Random(targetSize * 31 + entryCount);
+        try (ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target), 64 * 1024))) {
+            int templateEntries = copyTemplate(zipOut);
+
+            int syntheticEntries = Math.max(1, entryCount - templateEntries);
+            long bytesPerEntry = Math.max(1, targetSize / syntheticEntries);
+            for (int i = 0; i < syntheticEntries; i++) {
+                if (i % 4 == 3) {
+                    addDeflated(zipOut, "res/raw/text" + i + ".txt", bytesPerEntry);
+                } else if (i % 2 == 0) {
+                    addStored(zipOut, "lib/arm64-v8a/lib" + i + ".so", bytesPerEntry, random);
+                } else {
+                    addStored(zipOut, "assets/blob" + i + ".bin", bytesPerEntry, random);
+                }
+            }
+        }
+    }
+
+    private static int copyTemplate(ZipOutputStream zipOut) throws IOException {
+        File template = new File(SyntheticApk.class.getClassLoader().getResource(TEMPLATE_APK).getFile());
+        int count = 0;
+        try (ZipFile zipFile = new ZipFile(template)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                ZipEntry copy = new ZipEntry(entry.getName());
+                copy.setMethod(entry.getMethod());
+                if (entry.getMethod() == ZipEntry.STORED) {
+                    copy.setSize(entry.getSize());
+                    copy.setCompressedSize(entry.getCompressedSize());
+                    copy.setCrc(entry.getCrc());
+                }
+                zipOut.putNextEntry(copy);
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        zipOut.write(buffer, 0, read);
+                    }
+                }
+                zipOut.closeEntry();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void addStored(ZipOutputStream zipOut, String name, long size, Random random) throws IOException {
+        // one random chunk repeated, stored entries are never compressed so the content does not matter
+        byte[] chunk = new byte[(int) Math.min(size, MAX_CHUNK)];
+        random.nextBytes(chunk);
+
+        CRC32 crc = new CRC32();
+        for (long remaining = size; remaining > 0; remaining -= chunk.length) {
+            crc.update(chunk, 0, (int) Math.min(remaining, chunk.length));
+        }
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc.getValue());
+        zipOut.putNextEntry(entry);
+        for (long remaining = size; remaining > 0; remaining -= chunk.length) {
+            zipOut.write(chunk, 0, (int) Math.min(remaining, chunk.length));
+        }
+        zipOut.closeEntry();
+    }
+
+    private static void addDeflated(ZipOutputStream zipOut, String name, long size) throws IOException {
+        byte[] line = ("synthetic text content of " + name + " for compression\n").getBytes("UTF-8");
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        zipOut.putNextEntry(entry);
+        for (long remaining = size; remaining > 0; remaining -= line.length) {
+            zipOut.write(line, 0, (int) Math.min(remaining, line.length));
+        }
+        zipOut.closeEntry();
+    }
+}
@@ -0,0 +1,277 @@
+package at.favre.tools.apksigner;
+
+import at.favre.tools.apksigner.signing.AndroidApkSignerVerify;
+import at.favre.tools.apksigner.util.CmdUtil;
+import at.favre.tools.apksigner.util.JsonWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Machine readable per-phase timing of a run, written with <code>--report</code>. Every apk gets a row with its
+ * checksums, signature and the wall time and the size of the input and output file of each phase it went through
+ * (the same object is streamed with <code>--outputFormat ndjson</code>); the summary contains percentiles over all
+ * apks per phase.
+ * <p>
+ * Bytes are the sizes of the files a phase consumed and produced, not the physical I/O: e.g. the in-process
+ * alignment check only reads zip metadata of its input.
+ */
+final class ProcessingReport {
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    enum Phase {
+        PRE_CHECK("preCheck"),
+        CHECKSUM("checksum"),
+        CACHE_RESTORE("cacheRestore"),
+        /**
+         * the in-process alignment of files runs while signing, so its time is part of {@link #SIGN} and it produces no
+         * file; only the external zipalign and in-memory processing are measured separately
+         */
+        ALIGN("align"),
+        SIGN("sign"),
+        /**
+         * the v4 signature is created by the signer in the same call, so its time is part of {@link #SIGN}
+         */
+        V4("v4"),
+        ALIGN_VERIFY("alignVerify"),
+        SIG_VERIFY("sigVerify");
+
+        final String jsonName;
+
+        Phase(String jsonName) {
+            this.jsonName = jsonName;
+        }
+    }
+
+    /**
+     * Collects the phases of a single apk; not thread safe, every apk is processed by a single thread
+     */
+    static final class ApkTimings {
+        private final Map<Phase, PhaseStats> phases = new EnumMap<>(Phase.class);
+
+        /**
+         * Adds a phase execution; calling it multiple times for the same phase sums up the values
+         *
+         * @param phase       which phase
+         * @param startNanos  {@link System#nanoTime()} when the phase started, or -1 if not measured separately
+         * @param inputBytes  size of the consumed file
+         * @param outputBytes size of the produced file
+         */
+        void record(Phase phase, long startNanos, long inputBytes, long outputBytes) {
+            PhaseStats stats = phases.computeIfAbsent(phase, p -> new PhaseStats());
+            if (startNanos >= 0) {
+                stats.nanos += System.nanoTime() - startNanos;
+                stats.timed = true;
+            }
+            stats.inputBytes += inputBytes;
+            stats.outputBytes += outputBytes;
+        }
+
+        long totalNanos() {
+            long sum = 0;
+            for (PhaseStats stats : phases.values()) {
+                sum += stats.nanos;
+            }
+            return sum;
+        }
+    }
+
+    private static final class PhaseStats {
+        long nanos;
+        boolean timed;
+        long inputBytes;
+        long outputBytes;
+    }
+
+    private final List<SignTool.ApkResult> apkResults;
+    private final long wallTimeMs;
+
+    ProcessingReport(List<SignTool.ApkResult> apkResults, long wallTimeMs) {
+        this.apkResults = apkResults;
+        this.wallTimeMs = wallTimeMs;
+    }
+
+    void write(File reportFile) throws IOException {
+        File parent = reportFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent);
+        }
+        Files.write(reportFile.toPath(), (toJson() + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    String toJson() {
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        JsonWriter json = new JsonWriter(true).beginObject()
+                .name("version").value(CmdUtil.jarVersion())
+                .name("created").value(iso.format(new Date()))
+                .name("wallTimeMs").value(wallTimeMs);
+
+        json.name("apks").beginArray();
+        for (SignTool.ApkResult apkResult : apkResults) {
+            writeApk(json, apkResult);
+        }
+        json.endArray();
+
+        writeSummary(json);
+        return json.endObject().toString();
+    }
+
+    static void writeApk(JsonWriter json, SignTool.ApkResult apkResult) {
+        json.beginObject()
+                .name("file").value(apkResult.apkFile.getAbsolutePath())
+                .name("output").value(apkResult.outputFile != null ? apkResult.outputFile.getAbsolutePath() : null)
+                .name("status").value(apkResult.status.name())
+                .name("inputSha256").value(apkResult.inputSha256)
+                .name("outputSha256").value(apkResult.outputSha256);
+
+        json.name("signature");
+        if (apkResult.signatureCheck != null) {
+            writeSignature(json, apkResult.signatureCheck);
+        } else {
+            json.nullValue();
+        }
+
+        json.name("totalMs").value(toMs(apkResult.timings.totalNanos()));
+
+        json.name("phases").beginObject();
+        for (Map.Entry<Phase, PhaseStats> entry : apkResult.timings.phases.entrySet()) {
+            PhaseStats stats = entry.getValue();
+            json.name(entry.getKey().jsonName).beginObject();
+            if (stats.timed) {
+                json.name("ms").value(toMs(stats.nanos));
+            } else {
+                json.name("ms").nullValue();
+            }
+            json.name("inputBytes").value(stats.inputBytes)
+                    .name("outputBytes").value(stats.outputBytes)
+                    .endObject();
+        }
+        json.endObject().endObject();
+    }
+
+    private static void writeSignature(JsonWriter json, SignTool.SignatureCheck signatureCheck) {
+        AndroidApkSignerVerify.Result result = signatureCheck.result;
+        json.beginObject().name("verified").value(signatureCheck.isVerified());
+
+        json.name("schemes").beginArray();
+        boolean[] schemes = {result.v1Schema, result.v2Schema, result.v3Schema, result.v31Schema, result.v4Schema};
+        String[] schemeNames = {"v1", "v2", "v3", "v3.1", "v4"};
+        for (int i = 0; i < schemes.length; i++) {
+            if (schemes[i]) {
+                json.value(schemeNames[i]);
+            }
+        }
+        json.endArray();
+
+        json.name("certSha256").beginArray();
+        for (AndroidApkSignerVerify.CertInfo certInfo : result.certInfoList) {
+            json.value(certInfo.getCertSha256());
+        }
+        json.endArray();
+
+        json.name("certHashCheck");
+        if (signatureCheck.certHashResult != null) {
+            json.beginObject()
+                    .name("verified").value(signatureCheck.certHashResult.verified)
+                    .name("error").value(signatureCheck.certHashResult.errorString)
+                    .endObject();
+        } else {
+            json.nullValue();
+        }
+
+        json.name("errors").beginArray();
+        for (String error : result.errors) {
+            json.value(error);
+        }
+        json.endArray().endObject();
+    }
+
+    private void writeSummary(JsonWriter json) {
+        json.name("summary").beginObject().name("apks").value(apkResults.size());
+
+        List<Long> totals = new ArrayList<>();
+        for (SignTool.ApkResult apkResult : apkResults) {
+            if (!apkResult.timings.phases.isEmpty()) {
+                totals.add(apkResult.timings.totalNanos());
+            }
+        }
+        json.name("total");
+        writeDistribution(json, totals, -1, -1);
+
+        json.name("phases").beginObject();
+        for (Phase phase : Phase.values()) {
+            List<Long> nanos = new ArrayList<>();
+            long inputBytes = 0, outputBytes = 0;
+            for (SignTool.ApkResult apkResult : apkResults) {
+                PhaseStats stats = apkResult.timings.phases.get(phase);
+                if (stats != null && stats.timed) {
+                    nanos.add(stats.nanos);
+                }
+                if (stats != null) {
+                    inputBytes += stats.inputBytes;
+                    outputBytes += stats.outputBytes;
+                }
+            }
+            if (!nanos.isEmpty() || inputBytes > 0 || outputBytes > 0) {
+                json.name(phase.jsonName);
+                writeDistribution(json, nanos, inputBytes, outputBytes);
+            }
+        }
+        json.endObject().endObject();
+    }
+
+    private static void writeDistribution(JsonWriter json, List<Long> nanos, long inputBytes, long outputBytes) {
+        Collections.sort(nanos);
+        long sum = 0;
+        for (Long n : nanos) {
+            sum += n;
+        }
+
+        json.beginObject().name("count").value(nanos.size());
+        if (!nanos.isEmpty()) {
+            json.name("totalMs").value(toMs(sum))
+                    .name("minMs").value(toMs(nanos.get(0)));
+            for (double percentile : PERCENTILES) {
+                json.name("p" + (int) percentile + "Ms").value(toMs(percentile(nanos, percentile)));
+            }
+            json.name("maxMs").value(toMs(nanos.get(nanos.size() - 1)));
+        }
+        if (inputBytes >= 0) {
+            json.name("inputBytes").value(inputBytes)
+                    .name("outputBytes").value(outputBytes);
+            if (sum > 0) {
+                json.name("inputMbPerSec").value((inputBytes / (1024.0 * 1024.0)) / (sum / 1_000_000_000.0));
+            }
+        }
+        json.endObject();
+    }
+
+    /**
+     * Nearest-rank percentile
+     *
+     * @param sorted    ascending, must not be empty
+     * @param percentile between 0 and 100
+     * @return value
+     */
+    static long percentile(List<Long> sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1)));
+    }
+
+    private static double toMs(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
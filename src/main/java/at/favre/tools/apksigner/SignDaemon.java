@@ -0,0 +1,324 @@
+package at.favre.tools.apksigner;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.tools.apksigner.ui.Arg;
+import at.favre.tools.apksigner.ui.CLIParser;
+import at.favre.tools.apksigner.ui.ConsoleLog;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running mode which keeps a warm JVM and reuses loaded keystores across jobs. Java 8 has no unix domain
+ * sockets, so the daemon listens on a loopback-only TCP port; the port and a random access token are written to
+ * a file only readable by the current user, every job must present the token.
+ * <p>
+ * The protocol is line based (UTF-8). A request is:
+ * <pre>
+ * &lt;token&gt;
+ * run &lt;client cwd&gt;      (or 'stop' to shut down the daemon)
+ * &lt;arg&gt;                 one command line argument per line, e.g. '-a' and 'app.apk'
+ * ...
+ * &lt;empty line&gt;
+ * </pre>
+ * Relative paths in the arguments are resolved against the absolute working directory of the client sent after
+ * <code>run</code>; if it is omitted, only absolute paths are accepted.
+ * The response streams the console output as <code>out &lt;line&gt;</code> and <code>err &lt;line&gt;</code>,
+ * then one <code>apk &lt;SUCCESS|FAILED|SKIPPED&gt; &lt;input path&gt;\t&lt;output path&gt;</code> row per apk
+ * and finally <code>exit &lt;code&gt;</code> with the same exit code semantics as {@link SignTool#main(String[])}.
+ */
+final class SignDaemon {
+    static final String CMD_RUN = "run";
+    static final String CMD_STOP = "stop";
+    private static final int READ_TIMEOUT_MS = 30_000;
+
+    private final ConsoleLog console;
+    private final File daemonFile;
+    private final String token;
+    private final Map<String, KeyStore> keyStoreCache = new ConcurrentHashMap<>();
+    private final ExecutorService connectionPool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "uber-apk-signer-daemon-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile ServerSocket serverSocket;
+
+    SignDaemon(File daemonFile, ConsoleLog console) {
+        this.daemonFile = daemonFile;
+        this.console = console;
+        byte[] randomToken = new byte[32];
+        new SecureRandom().nextBytes(randomToken);
+        this.token = Bytes.wrap(randomToken).encodeHex();
+    }
+
+    static void run(Arg args, ConsoleLog console) {
+        File daemonFile = args.daemonFile != null ? new File(args.daemonFile) : new File(System.getProperty("user.home"), ".uber-apk-signer" + File.separator + "daemon");
+        try {
+            new SignDaemon(daemonFile, console).serve();
+        } catch (IOException e) {
+            throw new IllegalStateException("could not run daemon: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Binds the socket, writes the daemon file and blocks until the daemon is stopped.
+     *
+     * @throws IOException if the socket or daemon file cannot be created
+     */
+    void serve() throws IOException {
+        start();
+        acceptJobs();
+    }
+
+    void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        writeDaemonFile(serverSocket.getLocalPort());
+        console.log("daemon listening on " + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort() + " (" + daemonFile.getAbsolutePath() + ")");
+    }
+
+    /**
+     * Blocks and handles jobs concurrently until a 'stop' request is received or {@link #stop()} is called.
+     */
+    void acceptJobs() {
+        try {
+            while (!serverSocket.isClosed()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    break;
+                }
+                connectionPool.submit(() -> handle(socket));
+            }
+        } finally {
+            stop();
+            try {
+                connectionPool.awaitTermination(1, TimeUnit.HOURS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {
+        }
+        connectionPool.shutdown();
+        daemonFile.delete();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    private void writeDaemonFile(int port) throws IOException {
+        File parent = daemonFile.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent);
+        }
+
+        File tmp = File.createTempFile("daemon-", ".tmp", parent);
+        try {
+            try {
+                Files.setPosixFilePermissions(tmp.toPath(), PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                tmp.setReadable(false, false);
+                tmp.setReadable(true, true);
+            }
+            Files.write(tmp.toPath(), (port + "\n" + token + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), daemonFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            s.setSoTimeout(READ_TIMEOUT_MS);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = s.getOutputStream();
+            PrintStream response = new PrintStream(out, true, StandardCharsets.UTF_8.name());
+
+            String clientToken = in.readLine();
+            if (clientToken == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), clientToken.getBytes(StandardCharsets.UTF_8))) {
+                response.println("err invalid token");
+                response.println("exit 1");
+                return;
+            }
+
+            String command = in.readLine();
+            List<String> jobArgs = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                jobArgs.add(line);
+            }
+            s.setSoTimeout(0);
+
+            if (CMD_STOP.equals(command)) {
+                response.println("exit 0");
+                console.log("daemon stopped by client");
+                stop();
+            } else if (CMD_RUN.equals(command)) {
+                response.println("exit " + runJob(jobArgs.toArray(new String[0]), null, response));
+            } else if (command != null && command.startsWith(CMD_RUN + " ")) {
+                response.println("exit " + runJob(jobArgs.toArray(new String[0]), new File(command.substring(CMD_RUN.length() + 1)), response));
+            } else {
+                response.println("err unknown command '" + command + "', expected '" + CMD_RUN + "' or '" + CMD_STOP + "'");
+                response.println("exit 1");
+            }
+        } catch (Exception e) {
+            console.logErr("daemon job failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param clientDir working directory of the client to resolve relative paths against, null to reject relative paths
+     */
+    int runJob(String[] jobArgs, File clientDir, PrintStream response) throws IOException {
+        PrintStream out = new PrintStream(new LinePrefixOutputStream(response, "out "), true, StandardCharsets.UTF_8.name());
+        PrintStream err = new PrintStream(new LinePrefixOutputStream(response, "err "), true, StandardCharsets.UTF_8.name());
+
+        Arg args = CLIParser.parse(jobArgs, out, err);
+        if (args == null) {
+            return 0;
+        }
+        if (args.daemon) {
+            err.println("a daemon job cannot start another daemon");
+            return 1;
+        }
+        if (args.watchDir != null) {
+            err.println("a daemon job cannot watch a folder, start the watcher as its own process");
+            return 1;
+        }
+        for (Arg.SignArgs signArgs : args.signArgsList) {
+            if (!args.ksIsDebug && (signArgs.pass == null || signArgs.keyPass == null)) {
+                err.println("keystore and key passwords must be passed as arguments in daemon mode, interactive prompts are not supported");
+                return 1;
+            }
+        }
+        try {
+            resolvePaths(args, clientDir);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return 1;
+        }
+
+        SignTool.Result result = SignTool.execute(args, new ConsoleLog(out, err), keyStoreCache);
+        synchronized (response) {
+            for (SignTool.ApkResult apkResult : result.apkResults) {
+                response.println("apk " + apkResult.status + " " + apkResult.apkFile.getAbsolutePath() + "\t"
+                        + (apkResult.outputFile != null ? apkResult.outputFile.getAbsolutePath() : ""));
+            }
+        }
+        return result.exitCode();
+    }
+
+    /**
+     * Makes every path argument absolute, since the daemon does not run in the working directory of the client
+     *
+     * @throws IllegalArgumentException if a path is relative and the client did not send its working directory
+     */
+    static void resolvePaths(Arg args, File clientDir) {
+        if (clientDir != null && !clientDir.isAbsolute()) {
+            throw new IllegalArgumentException("working directory of the client must be absolute: " + clientDir);
+        }
+        if (args.apkFile != null) {
+            for (int i = 0; i < args.apkFile.length; i++) {
+                args.apkFile[i] = resolve(args.apkFile[i], clientDir);
+            }
+        }
+        for (Arg.SignArgs signArgs : args.signArgsList) {
+            signArgs.ksFile = resolve(signArgs.ksFile, clientDir);
+        }
+        args.out = resolve(args.out, clientDir);
+        args.lineageFilePath = resolve(args.lineageFilePath, clientDir);
+        args.zipAlignPath = resolve(args.zipAlignPath, clientDir);
+        args.cacheDir = resolve(args.cacheDir, clientDir);
+        args.reportFile = resolve(args.reportFile, clientDir);
+        args.verifyIndex = resolve(args.verifyIndex, clientDir);
+        args.idsigOut = resolve(args.idsigOut, clientDir);
+    }
+
+    private static String resolve(String path, File clientDir) {
+        if (path == null || new File(path).isAbsolute()) {
+            return path;
+        }
+        if (clientDir == null) {
+            throw new IllegalArgumentException("relative path '" + path + "' needs the working directory of the client, send '"
+                    + CMD_RUN + " <absolute cwd>' or only absolute paths");
+        }
+        return new File(clientDir, path).getPath();
+    }
+
+    /**
+     * Prefixes every line written to the target, so normal and error output can be multiplexed over one stream.
+     */
+    private static final class LinePrefixOutputStream extends OutputStream {
+        private final PrintStream target;
+        private final String prefix;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        LinePrefixOutputStream(PrintStream target, String prefix) {
+            this.target = target;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                flushLine();
+            } else if (b != '\r') {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public void flush() {
+            target.flush();
+        }
+
+        @Override
+        public void close() {
+            if (line.size() > 0) {
+                flushLine();
+            }
+        }
+
+        private void flushLine() {
+            synchronized (target) {
+                target.println(prefix + new String(line.toByteArray(), StandardCharsets.UTF_8));
+            }
+            line.reset();
+        }
+    }
+}
@@ -3,20 +3,32 @@ package at.favre.tools.apksigner;
 import at.favre.tools.apksigner.signing.*;
 import at.favre.tools.apksigner.ui.Arg;
 import at.favre.tools.apksigner.ui.CLIParser;
+import at.favre.tools.apksigner.ui.ConsoleLog;
 import at.favre.tools.apksigner.ui.FileArgParser;
-import at.favre.tools.apksigner.util.AndroidApkSignerUtil;
 import at.favre.tools.apksigner.util.CmdUtil;
+import at.favre.tools.apksigner.util.FileDigest;
 import at.favre.tools.apksigner.util.FileUtil;
-import com.android.apksigner.ApkSignerTool;
+import at.favre.tools.apksigner.util.JsonWriter;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Locale;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyStore;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * The main tool that manages the logic of the main process while satisfying the passed arguments
@@ -24,6 +36,9 @@ import java.util.Locale;
 public final class SignTool {
 
     private static final String ZIPALIGN_ALIGNMENT = "4";
+    private static final int MAX_LOGGED_MISALIGNED_ENTRIES = 10;
+    private static final int MAX_CMD_OUTPUT_LINES = 20;
+    private static final int MAX_CMD_OUTPUT_LINES_DEBUG = 1000;
     private static final String APK_FILE_EXTENSION = "apk";
 
     private SignTool() {
@@ -31,42 +46,70 @@ public final class SignTool {
 
     public static void main(String[] args) {
         Result result = mainExecute(args);
-        if (result != null && result.error) {
-            System.exit(1);
-        } else if (result != null && result.unsuccessful > 0) {
-            System.exit(2);
+        if (result != null && result.exitCode() != 0) {
+            System.exit(result.exitCode());
         }
     }
 
     static Result mainExecute(String[] args) {
         Arg arguments = CLIParser.parse(args);
 
+        if (arguments != null && arguments.daemon) {
+            SignDaemon.run(arguments, new ConsoleLog(System.out, System.err));
+            return null;
+        }
+
+        if (arguments != null && arguments.watchDir != null) {
+            SignWatcher.run(arguments, new ConsoleLog(System.out, System.err));
+            return null;
+        }
+
         if (arguments != null) {
-            return execute(arguments);
+            return execute(arguments, new ConsoleLog(System.out, System.err), null);
         }
         return null;
     }
 
-    private static Result execute(Arg args) {
-        List<CmdUtil.Result> executedCommands = new ArrayList<>();
+    /**
+     * Runs one complete invocation of the tool
+     *
+     * @param args          parsed arguments
+     * @param console       target of all human readable output
+     * @param keyStoreCache if not null, loaded keystores are shared through this map across invocations
+     * @return result with per apk status
+     */
+    static Result execute(Arg args, ConsoleLog console, Map<String, KeyStore> keyStoreCache) {
+        if (args.outputFormat == Arg.OutputFormat.NDJSON) {
+            console = console.humanOutputToErr();
+        }
+
+        List<CmdUtil.Result> executedCommands = Collections.synchronizedList(new ArrayList<>());
         ZipAlignExecutor zipAlignExecutor = null;
         SigningConfigGen signingConfigGen = null;
+        AndroidApkSigner apkSigner = null;
+        VerificationIndex verificationIndex = null;
+        DigestExecutor digestExecutor = null;
+        ExecutorService pool = null;
 
-        int successCount = 0;
-        int errorCount = 0;
+        List<ApkResult> apkResults = new ArrayList<>();
 
         try {
             File outFolder = null;
-            List<File> targetApkFiles = new FileArgParser().parseAndSortUniqueFilesNonRecursive(args.apkFile, APK_FILE_EXTENSION);
+            Iterator<File> targetApkFiles = new FileArgParser().discover(args.apkFile, APK_FILE_EXTENSION, args.maxDepth,
+                    toList(args.includeGlobs), toList(args.excludeGlobs));
 
-            if (targetApkFiles.isEmpty()) {
+            if (!targetApkFiles.hasNext()) {
                 throw new IllegalStateException("no apk files found in given paths");
             }
 
-            log("source:");
+            console.log("source:");
 
-            for (String path : FileArgParser.getDirSummary(targetApkFiles)) {
-                log("\t" + path);
+            List<File> sourceFiles = new ArrayList<>();
+            for (String apkFile : args.apkFile) {
+                sourceFiles.add(new File(apkFile));
+            }
+            for (String path : FileArgParser.getDirSummary(sourceFiles)) {
+                console.log("\t" + path);
             }
 
             if (args.out != null) {
@@ -82,123 +125,416 @@ public final class SignTool {
             }
 
 
-            if (!args.skipZipAlign) {
+            if (!args.skipZipAlign && args.zipAlignExternal) {
                 zipAlignExecutor = new ZipAlignExecutor(args);
-                log(zipAlignExecutor.toString());
+                console.log(zipAlignExecutor.toString());
+            } else if (!args.skipZipAlign) {
+                console.log("zipalign location: IN_PROCESS");
             }
 
             if (!args.onlyVerify) {
-                log("keystore:");
-                signingConfigGen = new SigningConfigGen(args.signArgsList, args.ksIsDebug);
+                console.log("keystore:");
+                signingConfigGen = new SigningConfigGen(args.signArgsList, args.ksIsDebug, keyStoreCache);
                 for (SigningConfig signingConfig : signingConfigGen.signingConfig) {
-                    log("\t" + signingConfig.description());
+                    console.log("\t" + signingConfig.description());
                 }
             }
 
             if (args.lineageFilePath != null) {
-                processLineagePath(args);
+                processLineagePath(args, console);
+            }
+
+            SigningCache signingCache = null;
+            if (!args.onlyVerify && args.cacheDir != null) {
+                signingCache = new SigningCache(new File(args.cacheDir), args.cacheMaxSizeMb * 1024 * 1024);
+                console.log(signingCache.toString());
+            }
+
+            if (args.onlyVerify && args.verifyIndex != null) {
+                verificationIndex = new VerificationIndex(new File(args.verifyIndex),
+                        "version=" + CmdUtil.jarVersion() + ";minSdk=" + args.minSdkVersion, args.forceVerify);
+                console.log(verificationIndex + (args.forceVerify ? " - forced full verification" : ""));
+            }
+
+            if (!args.onlyVerify) {
+                digestExecutor = new DigestExecutor(args.digestThreads != null ? args.digestThreads : DigestExecutor.defaultParallelism(args.threads));
+                apkSigner = new AndroidApkSigner(signingConfigGen.signingConfig, args.lineageFilePath != null ? new File(args.lineageFilePath) : null,
+                        args.v1SigningEnabled, args.v2SigningEnabled, args.v3SigningEnabled, args.v4SigningEnabled, args.minSdkVersion,
+                        args.idsigOut != null ? new File(args.idsigOut) : null, digestExecutor);
+                console.log("schemes: " + apkSigner.getSchemes() + (args.idsigOut != null ? " (v4 signatures in " + new File(args.idsigOut).getAbsolutePath() + ")" : ""));
+                console.log(digestExecutor.toString());
+            }
+
+            if (args.threads > 1) {
+                pool = Executors.newFixedThreadPool(args.threads);
+                console.log("threads: " + args.threads);
             }
 
             long startTime = System.currentTimeMillis();
 
-            int iterCount = 0;
+            List<File> tempFilesToDelete = Collections.synchronizedList(new ArrayList<>());
+            FileDigest.Cache digestCache = new FileDigest.Cache(FileDigest.SHA256);
+            Deque<Future<ApkResult>> pendingApks = new ArrayDeque<>();
+            Deque<ConsoleLog> pendingApkLogs = new ArrayDeque<>();
+            // bounds the submitted apks and their buffered logs while the folders are still being scanned
+            int maxPendingApks = args.threads * 2;
+
+            Map<File, File> claimedOutFiles = new HashMap<>();
+
+            // apks are submitted while the folders are still being scanned
+            for (int i = 1; targetApkFiles.hasNext(); i++) {
+                File apkFile = targetApkFiles.next();
+                File apkOutFolder = apkOutFolder(apkFile, outFolder, args);
+                File outputClaimedBy = claimOutputFile(apkFile, apkOutFolder, args, signingConfigGen, claimedOutFiles);
+                ApkJob job = new ApkJob(i, apkFile, apkOutFolder, outputClaimedBy, zipAlignExecutor, signingConfigGen, apkSigner, args, executedCommands, tempFilesToDelete, digestCache, signingCache, verificationIndex);
+
+                if (pool == null) {
+                    ApkResult apkResult = processApk(job, console);
+                    logResult(apkResult, args, console);
+                    apkResults.add(apkResult);
+                } else {
+                    while (!pendingApks.isEmpty() && (pendingApks.peek().isDone() || pendingApks.size() >= maxPendingApks)) {
+                        apkResults.add(awaitOldest(pendingApks, pendingApkLogs));
+                    }
+
+                    ConsoleLog apkLog = console.buffered();
+                    pendingApkLogs.add(apkLog);
+                    ConsoleLog resultLog = console;
+                    pendingApks.add(pool.submit(() -> {
+                        ApkResult apkResult = processApk(job, apkLog);
+                        logResult(apkResult, args, resultLog);
+                        return apkResult;
+                    }));
+                }
+            }
+
+            while (!pendingApks.isEmpty()) {
+                apkResults.add(awaitOldest(pendingApks, pendingApkLogs));
+            }
+
+            deleteTempFiles(args, tempFilesToDelete, console);
+
+            long wallTimeMs = System.currentTimeMillis() - startTime;
+            console.log(String.format(Locale.US, "\n[%s][v%s]\nFound %d APKs, successfully processed %d APKs and %d errors in %.2f seconds.",
+                    new Date().toString(), CmdUtil.jarVersion(), apkResults.size(), count(apkResults, ApkStatus.SUCCESS), count(apkResults, ApkStatus.FAILED), (double) wallTimeMs / 1000.0));
+
+            if (args.reportFile != null) {
+                writeReport(new File(args.reportFile), apkResults, wallTimeMs, console);
+            }
+
+            if (args.debug) {
+                console.log(getCommandHistory(executedCommands));
+            }
+        } catch (Exception e) {
+            logException(args, executedCommands, e, console);
+            return new Result(true, count(apkResults, ApkStatus.SUCCESS), count(apkResults, ApkStatus.FAILED), apkResults);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            if (digestExecutor != null) {
+                digestExecutor.close();
+            }
+            if (verificationIndex != null) {
+                saveVerificationIndex(verificationIndex, console);
+            }
+            cleanup(zipAlignExecutor, signingConfigGen);
+        }
+        return new Result(false, count(apkResults, ApkStatus.SUCCESS), count(apkResults, ApkStatus.FAILED), apkResults);
+    }
+
+    /**
+     * Waits for the oldest submitted apk and prints its buffered log, so the output keeps the submission order
+     */
+    private static ApkResult awaitOldest(Deque<Future<ApkResult>> pendingApks, Deque<ConsoleLog> pendingApkLogs) throws Exception {
+        try {
+            return pendingApks.poll().get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            pendingApkLogs.poll().flush();
+        }
+    }
+
+    private static int count(List<ApkResult> apkResults, ApkStatus status) {
+        int count = 0;
+        for (ApkResult apkResult : apkResults) {
+            if (apkResult.status == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static ApkResult processApk(ApkJob job, ConsoleLog log) throws Exception {
+        Arg args = job.args;
+        File targetApkFile = job.apkFile;
+        File rootTargetFile = targetApkFile;
+        ProcessingReport.ApkTimings timings = new ProcessingReport.ApkTimings();
 
-            List<File> tempFilesToDelete = new ArrayList<>();
-            for (File targetApkFile : targetApkFiles) {
-                iterCount++;
-                File rootTargetFile = targetApkFile;
+        log.log("\n" + String.format("%02d", job.index) + ". " + targetApkFile.getName());
 
-                log("\n" + String.format("%02d", iterCount) + ". " + targetApkFile.getName());
+        if (job.outputClaimedBy != null) {
+            log.logErr("\t- same output file as " + job.outputClaimedBy + " SKIP");
+            return new ApkResult(rootTargetFile, ApkStatus.FAILED, null, timings, null, null, null);
+        }
 
-                if (args.dryRun) {
-                    log("\t- (skip)");
-                    continue;
+        if (args.dryRun) {
+            log.log("\t- (skip)");
+            return new ApkResult(rootTargetFile, ApkStatus.SKIPPED, null, timings, null, null, null);
+        }
+
+        long phaseStart = System.nanoTime();
+        if (!args.onlyVerify && probeSigned(targetApkFile, args, log)) {
+            SignatureCheck preCheck = verifySign(targetApkFile, null, rootTargetFile, args.checkCertSha256, false, true, args.minSdkVersion, null, null, log);
+            timings.record(ProcessingReport.Phase.PRE_CHECK, phaseStart, targetApkFile.length(), 0);
+
+            if (preCheck.isVerified() && args.allowResign) {
+                log.log("\tWARNING: already signed - will be resigned. Old certificate info: " + preCheck.result.getCertCountString() + preCheck.result.getSchemaVersionInfoString());
+                for (AndroidApkSignerVerify.CertInfo certInfo : preCheck.result.certInfoList) {
+                    log.log("\t\tSubject: " + certInfo.getSubjectDn());
+                    log.log("\t\tSHA256: " + certInfo.getCertSha256());
                 }
 
-                if (!args.onlyVerify) {
-                    AndroidApkSignerVerify.Result preCheck = verifySign(targetApkFile, rootTargetFile, args.checkCertSha256, false, true);
+            } else if (preCheck.isVerified()) {
+                log.logErr("\t- already signed SKIP");
+                return new ApkResult(rootTargetFile, ApkStatus.FAILED, null, timings, null, null, preCheck);
+            }
+        } else if (!args.onlyVerify) {
+            timings.record(ProcessingReport.Phase.PRE_CHECK, phaseStart, 0, 0);
+        }
 
-                    if (preCheck != null && args.allowResign) {
-                        log("\tWARNING: already signed - will be resigned. Old certificate info: " + preCheck.getCertCountString() + preCheck.getSchemaVersionInfoString());
-                        for (AndroidApkSignerVerify.CertInfo certInfo : preCheck.certInfoList) {
-                            log("\t\tSubject: " + certInfo.subjectDn);
-                            log("\t\tSHA256: " + certInfo.certSha256);
-                        }
+        String signingCacheKey = null;
+        boolean restoredFromCache = false;
+        // hashed before signing, with overwrite the file is replaced by the signed apk
+        String inputSha256 = null;
+        // the apk while it is processed in memory, null if it is processed through files
+        DataSource inMemoryApk = null;
+
+        if (!args.onlyVerify) {
+            log.log("\n\tSIGN");
+            log.log("\tfile: " + rootTargetFile.getCanonicalPath() + " (" + FileUtil.getFileSizeMb(targetApkFile) + ")");
+            phaseStart = System.nanoTime();
+            if (isInMemory(rootTargetFile, job)) {
+                ByteBuffer apkBytes = ByteBuffer.wrap(Files.readAllBytes(rootTargetFile.toPath()));
+                inMemoryApk = DataSources.asDataSource(apkBytes);
+                inputSha256 = job.digestCache.get(rootTargetFile, apkBytes).sha256();
+            } else {
+                inputSha256 = job.digestCache.get(rootTargetFile).sha256();
+            }
+            timings.record(ProcessingReport.Phase.CHECKSUM, phaseStart, rootTargetFile.length(), 0);
+            log.log("\tchecksum: " + inputSha256 + " (sha256)");
+
+            if (job.signingCache != null) {
+                phaseStart = System.nanoTime();
+                signingCacheKey = createSigningCacheKey(inputSha256, job);
+                File signedFile = finalOutputFile(rootTargetFile, job);
+
+                if (job.signingCache.restore(signingCacheKey, signedFile, job.apkSigner.getV4SignatureFile(signedFile))) {
+                    log.log("\t- restored from signing cache");
+                    targetApkFile = signedFile;
+                    restoredFromCache = true;
+                    inMemoryApk = null;
+                }
+                timings.record(ProcessingReport.Phase.CACHE_RESTORE, phaseStart, 0, restoredFromCache ? signedFile.length() : 0);
+            }
 
-                    } else if (preCheck != null) {
-                        logErr("\t- already signed SKIP");
-                        errorCount++;
-                        continue;
-                    }
+            if (!restoredFromCache && inMemoryApk != null) {
+                if (!args.skipZipAlign) {
+                    phaseStart = System.nanoTime();
+                    long inputLength = inMemoryApk.size();
+                    inMemoryApk = zipAlignInMemory(inMemoryApk, rootTargetFile, log);
+                    timings.record(ProcessingReport.Phase.ALIGN, phaseStart, inputLength, inMemoryApk.size());
                 }
 
-                if (!args.onlyVerify) {
-                    log("\n\tSIGN");
-                    log("\tfile: " + rootTargetFile.getCanonicalPath() + " (" + FileUtil.getFileSizeMb(targetApkFile) + ")");
-                    log("\tchecksum: " + FileUtil.createChecksum(rootTargetFile, "SHA-256") + " (sha256)");
+                phaseStart = System.nanoTime();
+                long inputLength = inMemoryApk.size();
+                targetApkFile = finalOutputFile(rootTargetFile, job);
+                inMemoryApk = signInMemory(inMemoryApk, targetApkFile, job.apkSigner, log);
+                timings.record(ProcessingReport.Phase.SIGN, phaseStart, inputLength, targetApkFile.length());
+            } else if (!restoredFromCache) {
+                // the in-process alignment runs while signing, only the external zipalign needs an intermediate file
+                boolean alignWhileSigning = !args.skipZipAlign && job.zipAlignExecutor == null;
 
-                    targetApkFile = zipAlign(targetApkFile, rootTargetFile, outFolder, zipAlignExecutor, args, executedCommands);
+                if (!args.skipZipAlign && !alignWhileSigning) {
+                    phaseStart = System.nanoTime();
+                    long inputLength = targetApkFile.length();
+                    targetApkFile = zipAlign(targetApkFile, rootTargetFile, job.outFolder, job.zipAlignExecutor, args, job.executedCommands, log);
 
                     if (targetApkFile == null) {
                         throw new IllegalStateException("could not execute zipalign");
                     }
+                    timings.record(ProcessingReport.Phase.ALIGN, phaseStart, inputLength, targetApkFile.length());
 
-                    if (!args.overwrite && !args.skipZipAlign) {
-                        tempFilesToDelete.add(targetApkFile);
+                    if (!args.overwrite) {
+                        job.tempFilesToDelete.add(targetApkFile);
                     }
-
-                    targetApkFile = sign(targetApkFile, outFolder, signingConfigGen.signingConfig, args);
-
                 }
 
-                log("\n\tVERIFY");
-                log("\tfile: " + targetApkFile.getCanonicalPath() + " (" + FileUtil.getFileSizeMb(targetApkFile) + ")");
-                log("\tchecksum: " + FileUtil.createChecksum(targetApkFile, "SHA-256") + " (sha256)");
-
-                boolean zipAlignVerified = args.skipZipAlign || verifyZipAlign(targetApkFile, rootTargetFile, zipAlignExecutor, args, executedCommands);
-                boolean sigVerified = verifySign(targetApkFile, rootTargetFile, args.checkCertSha256, args.verbose, false) != null;
+                phaseStart = System.nanoTime();
+                long inputLength = targetApkFile.length();
+                targetApkFile = alignWhileSigning
+                        ? alignAndSign(rootTargetFile, job, log)
+                        : sign(targetApkFile, job.outFolder, job.signingConfigGen.signingConfig, job.apkSigner, args, log);
+                timings.record(ProcessingReport.Phase.SIGN, phaseStart, inputLength, targetApkFile.length());
+                if (alignWhileSigning) {
+                    timings.record(ProcessingReport.Phase.ALIGN, -1, inputLength, 0);
+                }
+            }
 
-                if (zipAlignVerified && sigVerified) {
-                    successCount++;
-                } else {
-                    errorCount++;
+            if (!restoredFromCache) {
+                File idsig = job.apkSigner.getV4SignatureFile(targetApkFile);
+                if (idsig != null && idsig.isFile()) {
+                    timings.record(ProcessingReport.Phase.V4, -1, targetApkFile.length(), idsig.length());
                 }
             }
+        }
+
+        log.log("\n\tVERIFY");
+        log.log("\tfile: " + targetApkFile.getCanonicalPath() + " (" + FileUtil.getFileSizeMb(targetApkFile) + ")");
+        phaseStart = System.nanoTime();
+        String outputSha256 = inMemoryApk != null
+                ? job.digestCache.get(targetApkFile, inMemoryApk.getByteBuffer(0, (int) inMemoryApk.size())).sha256()
+                : job.digestCache.get(targetApkFile).sha256();
+        log.log("\tchecksum: " + outputSha256 + " (sha256)");
+        timings.record(ProcessingReport.Phase.CHECKSUM, phaseStart, targetApkFile.length(), 0);
+
+        boolean zipAlignVerified = true;
+        if (!args.skipZipAlign) {
+            phaseStart = System.nanoTime();
+            zipAlignVerified = verifyZipAlign(targetApkFile, inMemoryApk, rootTargetFile, job.zipAlignExecutor, args, job.executedCommands, log);
+            timings.record(ProcessingReport.Phase.ALIGN_VERIFY, phaseStart, targetApkFile.length(), 0);
+        }
 
-            if (iterCount == 0) {
-                log("No apks found.");
+        phaseStart = System.nanoTime();
+        SignatureCheck signatureCheck = verifySign(targetApkFile, inMemoryApk, rootTargetFile, args.checkCertSha256, args.verbose, false,
+                args.minSdkVersion, job.verificationIndex, outputSha256, log);
+        boolean sigVerified = signatureCheck.isVerified();
+        timings.record(ProcessingReport.Phase.SIG_VERIFY, phaseStart, targetApkFile.length(), 0);
+
+        if (signingCacheKey != null && !restoredFromCache && zipAlignVerified && sigVerified) {
+            try {
+                job.signingCache.store(signingCacheKey, targetApkFile, job.apkSigner.getV4SignatureFile(targetApkFile));
+            } catch (IOException e) {
+                log.log("\tWARNING: could not add to signing cache: " + e.getMessage());
             }
+        }
 
-            deleteTempFiles(args, tempFilesToDelete);
+        return new ApkResult(rootTargetFile, zipAlignVerified && sigVerified ? ApkStatus.SUCCESS : ApkStatus.FAILED, targetApkFile, timings,
+                args.onlyVerify ? outputSha256 : inputSha256, outputSha256, signatureCheck);
+    }
 
-            log(String.format(Locale.US, "\n[%s][v%s]\nSuccessfully processed %d APKs and %d errors in %.2f seconds.",
-                    new Date().toString(), CmdUtil.jarVersion(), successCount, errorCount, (double) (System.currentTimeMillis() - startTime) / 1000.0));
+    /**
+     * @return true if given apk is small enough to be aligned, signed and verified in memory
+     */
+    private static boolean isInMemory(File apkFile, ApkJob job) {
+        return job.args.inMemoryMaxSizeMb > 0 && job.zipAlignExecutor == null && apkFile.length() <= job.args.inMemoryMaxSizeMb * 1024 * 1024;
+    }
 
-            if (args.debug) {
-                log(getCommandHistory(executedCommands));
+    /**
+     * Recreates the sub folder an apk was found in under the out folder, so same named apks from different sub folders
+     * do not overwrite each other
+     *
+     * @return out folder for given apk, null if written next to the input
+     */
+    private static File apkOutFolder(File apkFile, File outFolder, Arg args) {
+        if (outFolder == null) {
+            return null;
+        }
+        String relativeFolder = FileArgParser.relativeFolder(apkFile, args.apkFile);
+        File apkOutFolder = relativeFolder.isEmpty() ? outFolder : new File(outFolder, relativeFolder);
+
+        if (!apkOutFolder.exists() && !apkOutFolder.mkdirs()) {
+            throw new IllegalStateException("could not create out folder " + apkOutFolder);
+        }
+        return apkOutFolder;
+    }
+
+    /**
+     * Different inputs can still end up in the same output file (e.g. 'app.apk' and 'app-unsigned.apk'), the first
+     * discovered apk claims it
+     *
+     * @return the apk that already claimed the output of given apk or null if it is free
+     */
+    private static File claimOutputFile(File apkFile, File apkOutFolder, Arg args, SigningConfigGen signingConfigGen, Map<File, File> claimedOutFiles) {
+        if (args.onlyVerify || args.overwrite) {
+            return null;
+        }
+        File outputFile = signedOutputFile(args.skipZipAlign ? apkFile : alignedOutputFile(apkFile, apkOutFolder), apkOutFolder,
+                signingConfigGen.signingConfig).getAbsoluteFile();
+        return claimedOutFiles.putIfAbsent(outputFile, apkFile);
+    }
+
+    /**
+     * @return where the signed apk of given input is written, the same name the file based chain ends up with
+     */
+    private static File finalOutputFile(File rootTargetFile, ApkJob job) {
+        if (job.args.overwrite) {
+            return rootTargetFile;
+        }
+        return signedOutputFile(job.args.skipZipAlign ? rootTargetFile : alignedOutputFile(rootTargetFile, job.outFolder), job.outFolder,
+                job.signingConfigGen.signingConfig);
+    }
+
+    private static String createSigningCacheKey(String inputSha256, ApkJob job) {
+        Arg args = job.args;
+        String lineageSha256 = args.lineageFilePath != null ? job.digestCache.get(new File(args.lineageFilePath)).sha256() : null;
+        return SigningCache.createKey(inputSha256, job.signingConfigGen.signingConfig, lineageSha256,
+                "version=" + CmdUtil.jarVersion(),
+                "schemes=" + job.apkSigner.getSchemes(),
+                "skipZipAlign=" + args.skipZipAlign,
+                "zipAlignExternal=" + args.zipAlignExternal);
+    }
+
+    /**
+     * Only reads zip metadata, so unsigned apks skip the full verification pre-check. If the probe fails (e.g. zip64)
+     * the apk is treated as possibly signed and the full verifier decides.
+     */
+    private static boolean probeSigned(File targetApkFile, Arg args, ConsoleLog log) {
+        try {
+            SignatureProbe.Result probe = new SignatureProbe().probe(targetApkFile);
+            if (args.verbose) {
+                log.log("\t- signing block: " + (probe.signingBlock ? "yes" : "no") + ", v1 signature files: " + (probe.v1Signature ? "yes" : "no"));
             }
-        } catch (Exception e) {
-            logException(args, executedCommands, e);
-            return new Result(true, successCount, errorCount);
-        } finally {
-            cleanup(zipAlignExecutor, signingConfigGen);
+            return probe.isSigned();
+        } catch (IOException e) {
+            if (args.verbose) {
+                log.log("\t- could not probe signature, fall back to full verify: " + e.getMessage());
+            }
+            return true;
+        }
+    }
+
+    private static void writeReport(File reportFile, List<ApkResult> apkResults, long wallTimeMs, ConsoleLog log) {
+        try {
+            new ProcessingReport(apkResults, wallTimeMs).write(reportFile);
+            log.log("report: " + reportFile.getAbsolutePath());
+        } catch (IOException e) {
+            log.logErr("could not write report " + reportFile + ": " + e.getMessage());
         }
-        return new Result(false, successCount, errorCount);
     }
 
-    private static void processLineagePath(Arg args) throws IOException {
+    private static void saveVerificationIndex(VerificationIndex verificationIndex, ConsoleLog log) {
+        try {
+            verificationIndex.save();
+        } catch (IOException e) {
+            log.logErr("could not write verification index: " + e.getMessage());
+        }
+    }
+
+    private static void processLineagePath(Arg args, ConsoleLog log) throws IOException {
         File lineageFile = new File(args.lineageFilePath);
         if (!lineageFile.exists() || !lineageFile.isFile()) {
             throw new IllegalArgumentException("lineage file either does not exist or is not a file: " + args.lineageFilePath);
         }
-        log("lineage:");
-        log("\t" + FileUtil.createChecksum(lineageFile, "SHA-256").substring(0, 8) + " " + lineageFile.getCanonicalPath());
+        log.log("lineage:");
+        log.log("\t" + FileUtil.createChecksum(lineageFile, "SHA-256").substring(0, 8) + " " + lineageFile.getCanonicalPath());
     }
 
-    private static void deleteTempFiles(Arg args, List<File> tempFilesToDelete) {
+    private static void deleteTempFiles(Arg args, List<File> tempFilesToDelete, ConsoleLog log) {
         for (File file : tempFilesToDelete) {
             if (args.verbose) {
-                log("delete temp file " + file);
+                log.log("delete temp file " + file);
             }
             file.delete();
         }
@@ -214,62 +550,115 @@ public final class SignTool {
         }
     }
 
-    private static void logException(Arg args, List<CmdUtil.Result> executedCommands, Exception e) {
-        logErr(e.getMessage());
+    private static void logException(Arg args, List<CmdUtil.Result> executedCommands, Exception e, ConsoleLog log) {
+        log.logErr(e.getMessage());
 
         if (args.debug) {
-            e.printStackTrace();
-            logErr(getCommandHistory(executedCommands));
+            // through the log, so a daemon job gets the trace on its own stream
+            StringWriter stackTrace = new StringWriter();
+            e.printStackTrace(new PrintWriter(stackTrace));
+            log.logErr(stackTrace.toString());
+            log.logErr(getCommandHistory(executedCommands));
         } else {
-            logErr("Run with '--debug' parameter to get additional information.");
+            log.logErr("Run with '--debug' parameter to get additional information.");
         }
     }
 
-    private static File zipAlign(File targetApkFile, File rootTargetFile, File outFolder, ZipAlignExecutor executor, Arg arguments, List<CmdUtil.Result> cmdList) {
+    /**
+     * Aligns with the external zipalign into an intermediate file, the in-process alignment runs while signing
+     * (see {@link #alignAndSign(File, ApkJob, ConsoleLog)})
+     */
+    private static File zipAlign(File targetApkFile, File rootTargetFile, File outFolder, ZipAlignExecutor executor, Arg arguments, List<CmdUtil.Result> cmdList, ConsoleLog log) {
         if (!arguments.skipZipAlign) {
 
-            String fileName = FileUtil.getFileNameWithoutExtension(targetApkFile);
-            fileName = fileName.replace("-unaligned", "");
-            fileName += "-aligned";
-            File outFile = new File(outFolder != null ? outFolder : targetApkFile.getParentFile(), fileName + "." + FileUtil.getFileExtension(targetApkFile));
+            File outFile = alignedOutputFile(targetApkFile, outFolder);
 
             if (outFile.exists()) {
                 outFile.delete();
             }
 
+            boolean success;
             if (executor.isExecutableFound()) {
                 String logMsg = "\t- ";
 
-                CmdUtil.Result zipAlignResult = CmdUtil.runCmd(CmdUtil.concat(executor.getZipAlignExecutable(), new String[]{"-p", "-v", ZIPALIGN_ALIGNMENT, targetApkFile.getAbsolutePath(), outFile.getAbsolutePath()}));
+                CmdUtil.Result zipAlignResult = runZipAlign(executor, arguments, arguments.debug
+                        ? new String[]{"-p", "-v", ZIPALIGN_ALIGNMENT, targetApkFile.getAbsolutePath(), outFile.getAbsolutePath()}
+                        : new String[]{"-p", ZIPALIGN_ALIGNMENT, targetApkFile.getAbsolutePath(), outFile.getAbsolutePath()}, log);
                 cmdList.add(zipAlignResult);
-                if (zipAlignResult.success()) {
+                success = zipAlignResult.success();
+                if (success) {
                     logMsg += "zipalign success";
                 } else {
                     logMsg += "could not align ";
                 }
 
-                logConditionally(logMsg, outFile, !rootTargetFile.equals(outFile), false);
-
-                if (arguments.overwrite) {
-                    targetApkFile.delete();
-                    outFile.renameTo(targetApkFile);
-                    outFile = targetApkFile;
-                }
-                return zipAlignResult.success() ? outFile : null;
+                logConditionally(logMsg, outFile, !rootTargetFile.equals(outFile), false, log);
             } else {
                 throw new IllegalArgumentException("could not find zipalign - either skip it or provide a proper location");
             }
 
+            if (arguments.overwrite) {
+                targetApkFile.delete();
+                outFile.renameTo(targetApkFile);
+                outFile = targetApkFile;
+            }
+            return success ? outFile : null;
         }
         return targetApkFile;
     }
 
-    private static boolean verifyZipAlign(File targetApkFile, File rootTargetFile, ZipAlignExecutor executor, Arg arguments, List<CmdUtil.Result> cmdList) {
+    /**
+     * Runs the external zipalign with a timeout; only the tail of its output is kept for the debug command history,
+     * since it is retained until the end of the batch.
+     */
+    private static CmdUtil.Result runZipAlign(ZipAlignExecutor executor, Arg arguments, String[] zipAlignArgs, ConsoleLog log) {
+        CmdUtil.Result result = CmdUtil.runCmd(CmdUtil.concat(executor.getZipAlignExecutable(), zipAlignArgs),
+                arguments.debug ? MAX_CMD_OUTPUT_LINES_DEBUG : MAX_CMD_OUTPUT_LINES, TimeUnit.SECONDS.toMillis(arguments.processTimeoutSec));
+        if (result.exception instanceof TimeoutException) {
+            log.logErr("\t\tzipalign " + result.exception.getMessage());
+        }
+        return result;
+    }
+
+    private static DataSource zipAlignInMemory(DataSource apk, File rootTargetFile, ConsoleLog log) {
+        try {
+            DataSource aligned = new ZipAligner().align(apk);
+            log.log("\t- zipalign success (in memory)");
+            return aligned;
+        } catch (IOException e) {
+            throw new IllegalStateException("could not align " + rootTargetFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param apkData content of the target apk if it is in memory, null to read the file
+     */
+    private static boolean verifyZipAlign(File targetApkFile, DataSource apkData, File rootTargetFile, ZipAlignExecutor executor, Arg arguments,
+                                          List<CmdUtil.Result> cmdList, ConsoleLog log) {
         if (!arguments.skipZipAlign) {
-            if (executor.isExecutableFound()) {
+            if (executor == null) {
+                ZipAligner.VerifyResult result;
+                try {
+                    result = apkData != null ? new ZipAligner().verify(apkData, false) : new ZipAligner().verify(targetApkFile, false);
+                } catch (IOException e) {
+                    throw new IllegalStateException("could not verify alignment of " + targetApkFile + ": " + e.getMessage(), e);
+                }
+
+                boolean success = result.isAligned();
+                logConditionally(success ? "\t- zipalign verified" : "\t- zipalign VERIFY FAILED", targetApkFile, !targetApkFile.equals(rootTargetFile), !success, log);
+
+                int maxLogged = arguments.verbose ? Integer.MAX_VALUE : MAX_LOGGED_MISALIGNED_ENTRIES;
+                for (int i = 0; i < result.misalignedEntries.size() && i < maxLogged; i++) {
+                    log.logErr("\t\tERROR: misaligned " + result.misalignedEntries.get(i));
+                }
+                if (result.misalignedEntries.size() > maxLogged) {
+                    log.logErr("\t\t" + (result.misalignedEntries.size() - maxLogged) + " more misaligned entries, use --verbose to show all");
+                }
+                return success;
+            } else if (executor.isExecutableFound()) {
                 String logMsg = "\t- ";
 
-                CmdUtil.Result zipAlignVerifyResult = CmdUtil.runCmd(CmdUtil.concat(executor.getZipAlignExecutable(), new String[]{"-c", ZIPALIGN_ALIGNMENT, targetApkFile.getAbsolutePath()}));
+                CmdUtil.Result zipAlignVerifyResult = runZipAlign(executor, arguments, new String[]{"-c", ZIPALIGN_ALIGNMENT, targetApkFile.getAbsolutePath()}, log);
                 cmdList.add(zipAlignVerifyResult);
                 boolean success = zipAlignVerifyResult.success();
 
@@ -279,7 +668,7 @@ public final class SignTool {
                     logMsg += "zipalign VERIFY FAILED";
                 }
 
-                logConditionally(logMsg, targetApkFile, !targetApkFile.equals(rootTargetFile), !success);
+                logConditionally(logMsg, targetApkFile, !targetApkFile.equals(rootTargetFile), !success, log);
 
                 return zipAlignVerifyResult.success();
             } else {
@@ -289,94 +678,157 @@ public final class SignTool {
         return true;
     }
 
-    private static File sign(File targetApkFile, File outFolder, List<SigningConfig> signingConfigs, Arg arguments) {
+    private static File alignedOutputFile(File targetApkFile, File outFolder) {
+        String fileName = FileUtil.getFileNameWithoutExtension(targetApkFile);
+        fileName = fileName.replace("-unaligned", "");
+        fileName += "-aligned";
+        return new File(outFolder != null ? outFolder : targetApkFile.getParentFile(), fileName + "." + FileUtil.getFileExtension(targetApkFile));
+    }
+
+    private static File signedOutputFile(File targetApkFile, File outFolder, List<SigningConfig> signingConfigs) {
+        String fileName = FileUtil.getFileNameWithoutExtension(targetApkFile);
+        fileName = fileName.replace("-unsigned", "");
+        if (signingConfigs.size() == 1 && signingConfigs.get(0).isDebugType) {
+            fileName += "-debugSigned";
+        } else {
+            fileName += "-signed";
+        }
+        return new File(outFolder != null ? outFolder : targetApkFile.getParentFile(), fileName + "." + FileUtil.getFileExtension(targetApkFile));
+    }
+
+    /**
+     * Aligns and signs in a single pass, the apk is read once and only the signed apk is written
+     */
+    private static File alignAndSign(File rootTargetFile, ApkJob job, ConsoleLog log) {
+        File outFile = finalOutputFile(rootTargetFile, job);
+        try {
+            job.apkSigner.sign(rootTargetFile, outFile, true);
+            log.log("\t- zipalign and sign success");
+            return outFile;
+        } catch (Exception e) {
+            throw new IllegalStateException("could not align and sign " + rootTargetFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static File sign(File targetApkFile, File outFolder, List<SigningConfig> signingConfigs, AndroidApkSigner apkSigner, Arg arguments, ConsoleLog log) {
         try {
             File outFile = targetApkFile;
 
             if (!arguments.overwrite) {
-                String fileName = FileUtil.getFileNameWithoutExtension(targetApkFile);
-                fileName = fileName.replace("-unsigned", "");
-                if (signingConfigs.size() == 1 && signingConfigs.get(0).isDebugType) {
-                    fileName += "-debugSigned";
-                } else {
-                    fileName += "-signed";
-                }
-                outFile = new File(outFolder != null ? outFolder : targetApkFile.getParentFile(), fileName + "." + FileUtil.getFileExtension(targetApkFile));
+                outFile = signedOutputFile(targetApkFile, outFolder, signingConfigs);
 
                 if (outFile.exists()) {
                     outFile.delete();
                 }
             }
 
-            ByteArrayOutputStream apkSignerToolStream = new ByteArrayOutputStream();
-            PrintStream sout = System.out;
-            System.setOut(new PrintStream(apkSignerToolStream));
-            ApkSignerTool.main(AndroidApkSignerUtil.createApkToolArgs(arguments, signingConfigs, targetApkFile, outFile));
-            String output = apkSignerToolStream.toString("UTF-8").trim();
-            System.setOut(sout);
+            apkSigner.sign(targetApkFile, outFile);
 
-            log("\t- sign success");
-
-            if (arguments.verbose && !output.isEmpty()) {
-                log("\t\t" + output);
-            }
+            log.log("\t- sign success");
 
             return outFile;
         } catch (Exception e) {
-            e.printStackTrace();
             throw new IllegalStateException("could not sign " + targetApkFile + ": " + e.getMessage(), e);
         }
     }
 
-    private static AndroidApkSignerVerify.Result verifySign(File targetApkFile, File rootTargetFile, String[] checkHashes, boolean verbose, boolean preCheckVerify) {
+    /**
+     * Signs into memory and writes the signed apk to given file in one go; with overwrite the input apk is only
+     * replaced once the signed apk is completely written.
+     *
+     * @return the signed apk
+     */
+    private static DataSource signInMemory(DataSource apk, File outFile, AndroidApkSigner apkSigner, ConsoleLog log) {
         try {
-            AndroidApkSignerVerify verifier = new AndroidApkSignerVerify();
-            AndroidApkSignerVerify.Result result = verifier.verify(targetApkFile, null, null, null, false);
+            DataSource signed = apkSigner.sign(apk, outFile);
+            File tmpFile = File.createTempFile("uapksigner-", ".apk", outFile.getAbsoluteFile().getParentFile());
+            try {
+                try (FileChannel out = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = signed.getByteBuffer(0, (int) signed.size());
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+                Files.move(tmpFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tmpFile.delete();
+            }
+
+            log.log("\t- sign success (in memory)");
+            return signed;
+        } catch (Exception e) {
+            throw new IllegalStateException("could not sign " + outFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param apkData           content of the target apk if it is in memory, null to read the file
+     * @param minSdkVersion     lowest checked API level or null to use the one of the manifest
+     * @param verificationIndex if not null, the result is looked up in and added to the index
+     * @param sha256            content hash of the target apk, only needed with an index
+     */
+    private static SignatureCheck verifySign(File targetApkFile, DataSource apkData, File rootTargetFile, String[] checkHashes, boolean verbose, boolean preCheckVerify,
+                                             Integer minSdkVersion, VerificationIndex verificationIndex, String sha256, ConsoleLog log) {
+        try {
+            AndroidApkSignerVerify.Result result = null;
+            boolean fromIndex = false;
+            if (verificationIndex != null) {
+                result = verificationIndex.get(targetApkFile, sha256);
+                fromIndex = result != null;
+            }
+            if (result == null) {
+                result = apkData != null
+                        ? new AndroidApkSignerVerify().verify(apkData, minSdkVersion, null, null, false)
+                        : new AndroidApkSignerVerify().verify(targetApkFile, minSdkVersion, null, null, false);
+                if (verificationIndex != null) {
+                    verificationIndex.put(targetApkFile, sha256, result);
+                }
+            }
 
             if (!preCheckVerify) {
                 String logMsg;
 
                 if (result.verified) {
-                    logMsg = "\t- signature verified " + result.getCertCountString() + result.getSchemaVersionInfoString();
+                    logMsg = "\t- signature verified " + result.getCertCountString() + result.getSchemaVersionInfoString() + (fromIndex ? " (unchanged, from index)" : "");
                 } else {
-                    logMsg = "\t- signature VERIFY FAILED (" + targetApkFile.getName() + ")";
+                    logMsg = "\t- signature VERIFY FAILED (" + targetApkFile.getName() + ")" + (fromIndex ? " (unchanged, from index)" : "");
                 }
 
-                logConditionally(logMsg, targetApkFile, !rootTargetFile.equals(targetApkFile), !result.verified);
+                logConditionally(logMsg, targetApkFile, !rootTargetFile.equals(targetApkFile), !result.verified, log);
 
                 if (!result.errors.isEmpty()) {
                     for (String e : result.errors) {
-                        logErr("\t\t" + e);
+                        log.logErr("\t\t" + e);
                     }
                 }
 
                 if (verbose && !result.warnings.isEmpty()) {
                     for (String w : result.warnings) {
-                        log("\t\t" + w);
+                        log.log("\t\t" + w);
                     }
                 } else if (!result.warnings.isEmpty()) {
-                    log("\t\t" + result.warnings.size() + " warnings");
+                    log.log("\t\t" + result.warnings.size() + " warnings");
                 }
 
                 if (result.verified) {
                     for (int i = 0; i < result.certInfoList.size(); i++) {
                         AndroidApkSignerVerify.CertInfo certInfo = result.certInfoList.get(i);
 
-                        log("\t\t" + certInfo.subjectDn);
-                        log("\t\tSHA256: " + certInfo.certSha256 + " / " + certInfo.sigAlgo);
+                        log.log("\t\t" + certInfo.getSubjectDn());
+                        log.log("\t\tSHA256: " + certInfo.getCertSha256() + " / " + certInfo.getSigAlgo());
                         if (verbose) {
-                            log("\t\tSHA1: " + certInfo.certSha1);
-                            log("\t\t" + certInfo.issuerDn);
-                            log("\t\tPublic Key SHA256: " + certInfo.pubSha256);
-                            log("\t\tPublic Key SHA1: " + certInfo.pubSha1);
-                            log("\t\tPublic Key Algo: " + certInfo.pubAlgo + " " + certInfo.pubKeysize);
-                            log("\t\tIssue Date: " + certInfo.beginValidity);
+                            log.log("\t\tSHA1: " + certInfo.getCertSha1());
+                            log.log("\t\t" + certInfo.getIssuerDn());
+                            log.log("\t\tPublic Key SHA256: " + certInfo.getPubSha256());
+                            log.log("\t\tPublic Key SHA1: " + certInfo.getPubSha1());
+                            log.log("\t\tPublic Key Algo: " + certInfo.getPubAlgo() + " " + certInfo.getPubKeysize());
+                            log.log("\t\tIssue Date: " + certInfo.getBeginValidity());
 
                         }
-                        log("\t\tExpires: " + certInfo.expiry.toString());
+                        log.log("\t\tExpires: " + certInfo.getExpiry().toString());
 
                         if (i < result.certInfoList.size() - 1) {
-                            log("");
+                            log.log("");
                         }
                     }
                 }
@@ -384,46 +836,134 @@ public final class SignTool {
                 CertHashChecker.Result certHashResult = new CertHashChecker().check(result, checkHashes);
                 if (certHashResult != null) {
                     if (!certHashResult.verified) {
-                        log("\t- verify with provided hash check failed " + certHashResult.hashSummary());
-                        logErr("\t\tERROR: " + certHashResult.errorString);
+                        log.log("\t- verify with provided hash check failed " + certHashResult.hashSummary());
+                        log.logErr("\t\tERROR: " + certHashResult.errorString);
                     } else {
-                        log("\t- verify with provided hash successful " + certHashResult.hashSummary());
+                        log.log("\t- verify with provided hash successful " + certHashResult.hashSummary());
                     }
-                    return result.verified && certHashResult.verified ? result : null;
+                    return new SignatureCheck(result, certHashResult);
                 }
 
             }
-            return result.verified ? result : null;
+            return new SignatureCheck(result, null);
         } catch (Exception e) {
             throw new IllegalStateException("could not verify " + targetApkFile + ": " + e.getMessage(), e);
         }
     }
 
-    private static String getCommandHistory(List<CmdUtil.Result> executedCommands) {
-        StringBuilder sb = new StringBuilder("\nCmd history for debugging purpose:\n-----------------------\n");
-        for (CmdUtil.Result executedCommand : executedCommands) {
-            sb.append(executedCommand.toString());
+    private static void logResult(ApkResult apkResult, Arg args, ConsoleLog log) {
+        if (args.outputFormat == Arg.OutputFormat.NDJSON) {
+            JsonWriter json = new JsonWriter(false);
+            ProcessingReport.writeApk(json, apkResult);
+            log.logResult(json.toString());
         }
-        return sb.toString();
     }
 
-    private static void logErr(String msg) {
-        System.err.println(msg);
+    private static List<String> toList(String[] values) {
+        return values != null ? Arrays.asList(values) : Collections.emptyList();
     }
 
-    private static void log(String msg) {
-        System.out.println(msg);
+    private static String getCommandHistory(List<CmdUtil.Result> executedCommands) {
+        StringBuilder sb = new StringBuilder("\nCmd history for debugging purpose:\n-----------------------\n");
+        synchronized (executedCommands) {
+            for (CmdUtil.Result executedCommand : executedCommands) {
+                sb.append(executedCommand.toString());
+            }
+        }
+        return sb.toString();
     }
 
-    private static void logConditionally(String logMsg, File file, boolean appendFile, boolean error) {
+    private static void logConditionally(String logMsg, File file, boolean appendFile, boolean error, ConsoleLog log) {
         if (appendFile && error) {
             logMsg += " (" + file.getName() + ")";
         }
 
         if (error) {
-            logErr(logMsg);
+            log.logErr(logMsg);
         } else {
-            log(logMsg);
+            log.log(logMsg);
+        }
+    }
+
+    enum ApkStatus {
+        SUCCESS, FAILED, SKIPPED
+    }
+
+    static final class ApkResult {
+        final File apkFile;
+        final ApkStatus status;
+        final File outputFile;
+        final ProcessingReport.ApkTimings timings;
+        final String inputSha256;
+        final String outputSha256;
+        final SignatureCheck signatureCheck;
+
+        ApkResult(File apkFile, ApkStatus status, File outputFile, ProcessingReport.ApkTimings timings, String inputSha256,
+                  String outputSha256, SignatureCheck signatureCheck) {
+            this.apkFile = apkFile;
+            this.status = status;
+            this.outputFile = outputFile;
+            this.timings = timings;
+            this.inputSha256 = inputSha256;
+            this.outputSha256 = outputSha256;
+            this.signatureCheck = signatureCheck;
+        }
+    }
+
+    /**
+     * Outcome of the signature verification and the optional check against the passed certificate hashes
+     */
+    static final class SignatureCheck {
+        final AndroidApkSignerVerify.Result result;
+        final CertHashChecker.Result certHashResult;
+
+        SignatureCheck(AndroidApkSignerVerify.Result result, CertHashChecker.Result certHashResult) {
+            this.result = result;
+            this.certHashResult = certHashResult;
+        }
+
+        boolean isVerified() {
+            return result.verified && (certHashResult == null || certHashResult.verified);
+        }
+    }
+
+    /**
+     * Everything needed to run the full chain (pre-check, zipalign, sign, verify) for a single APK
+     */
+    private static final class ApkJob {
+        final int index;
+        final File apkFile;
+        final File outFolder;
+        /**
+         * the apk already writing to the same output file, null if the output is not claimed by another apk
+         */
+        final File outputClaimedBy;
+        final ZipAlignExecutor zipAlignExecutor;
+        final SigningConfigGen signingConfigGen;
+        final AndroidApkSigner apkSigner;
+        final Arg args;
+        final List<CmdUtil.Result> executedCommands;
+        final List<File> tempFilesToDelete;
+        final FileDigest.Cache digestCache;
+        final SigningCache signingCache;
+        final VerificationIndex verificationIndex;
+
+        ApkJob(int index, File apkFile, File outFolder, File outputClaimedBy, ZipAlignExecutor zipAlignExecutor, SigningConfigGen signingConfigGen,
+               AndroidApkSigner apkSigner, Arg args, List<CmdUtil.Result> executedCommands, List<File> tempFilesToDelete,
+               FileDigest.Cache digestCache, SigningCache signingCache, VerificationIndex verificationIndex) {
+            this.index = index;
+            this.apkFile = apkFile;
+            this.outFolder = outFolder;
+            this.outputClaimedBy = outputClaimedBy;
+            this.zipAlignExecutor = zipAlignExecutor;
+            this.signingConfigGen = signingConfigGen;
+            this.apkSigner = apkSigner;
+            this.args = args;
+            this.executedCommands = executedCommands;
+            this.tempFilesToDelete = tempFilesToDelete;
+            this.digestCache = digestCache;
+            this.signingCache = signingCache;
+            this.verificationIndex = verificationIndex;
         }
     }
 
@@ -431,11 +971,25 @@ public final class SignTool {
         final boolean error;
         final int success;
         final int unsuccessful;
+        final List<ApkResult> apkResults;
 
-        Result(boolean error, int success, int unsuccessful) {
+        Result(boolean error, int success, int unsuccessful, List<ApkResult> apkResults) {
             this.error = error;
             this.success = success;
             this.unsuccessful = unsuccessful;
+            this.apkResults = apkResults;
+        }
+
+        /**
+         * @return process exit code: 1 on error (e.g. wrong arguments), 2 if at least one apk failed, 0 otherwise
+         */
+        int exitCode() {
+            if (error) {
+                return 1;
+            } else if (unsuccessful > 0) {
+                return 2;
+            }
+            return 0;
         }
     }
 }
@@ -0,0 +1,223 @@
+package at.favre.tools.apksigner;
+
+import at.favre.tools.apksigner.ui.Arg;
+import at.favre.tools.apksigner.ui.ConsoleLog;
+import at.favre.tools.apksigner.ui.FileArgParser;
+import at.favre.tools.apksigner.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.KeyStore;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a folder and signs every apk that lands in it into the out folder, without restarting the JVM.
+ * <p>
+ * An apk is considered complete if its size and modification date did not change for {@link #STABLE_MS}, this
+ * covers both files written in place and files atomically renamed into the folder.
+ * All events for the same file collapse into one queue entry, and a file is only processed again if it changed
+ * after it was signed.
+ */
+final class SignWatcher {
+    static final long STABLE_MS = 1000;
+    private static final String APK_FILE_EXTENSION = "apk";
+
+    private final Arg args;
+    private final File watchDir;
+    private final ConsoleLog console;
+    private final long stableMs;
+    private final Map<String, KeyStore> keyStoreCache = new ConcurrentHashMap<>();
+    private final Map<File, FileState> pending = new LinkedHashMap<>();
+    private final Map<File, FileState> processed = new HashMap<>();
+    private volatile WatchService watchService;
+
+    SignWatcher(Arg args, ConsoleLog console, long stableMs) {
+        this.args = args;
+        this.watchDir = new File(args.watchDir).getAbsoluteFile();
+        this.console = console;
+        this.stableMs = stableMs;
+    }
+
+    static void run(Arg args, ConsoleLog console) {
+        try {
+            new SignWatcher(args, console, STABLE_MS).watch();
+        } catch (IOException e) {
+            throw new IllegalStateException("could not watch " + args.watchDir + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Blocks and processes apks until {@link #stop()} is called or the thread is interrupted.
+     *
+     * @throws IOException if the folder cannot be watched
+     */
+    void watch() throws IOException {
+        if (!watchDir.isDirectory()) {
+            throw new IllegalArgumentException("watch path must be an existing directory: " + args.watchDir);
+        }
+
+        watchService = watchDir.toPath().getFileSystem().newWatchService();
+        try {
+            watchDir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            console.log("watching " + watchDir.getCanonicalPath() + " for apks (stop with Ctrl+C)");
+
+            scanDir();
+
+            while (true) {
+                WatchKey key = watchService.poll(pending.isEmpty() ? 1000 : stableMs / 4 + 1, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handleEvents(key);
+                }
+                processStableFiles();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stop();
+        }
+    }
+
+    void stop() {
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                scanDir();
+                continue;
+            }
+
+            File file = watchDir.toPath().resolve((Path) event.context()).toFile();
+            if (!FileUtil.getFileExtension(file).equalsIgnoreCase(APK_FILE_EXTENSION)) {
+                continue;
+            }
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                pending.remove(file);
+                processed.remove(file);
+            } else {
+                enqueue(file);
+            }
+        }
+        key.reset();
+    }
+
+    private void scanDir() {
+        for (File file : new FileArgParser().parseAndSortUniqueFilesNonRecursive(new String[]{watchDir.getAbsolutePath()}, APK_FILE_EXTENSION)) {
+            enqueue(file);
+        }
+    }
+
+    private void enqueue(File file) {
+        FileState state = FileState.of(file);
+        if (state == null || state.equals(processed.get(file))) {
+            return;
+        }
+
+        FileState pendingState = pending.get(file);
+        if (pendingState == null || !pendingState.equals(state)) {
+            pending.put(file, state);
+        }
+    }
+
+    private void processStableFiles() {
+        long now = System.currentTimeMillis();
+        Map<File, FileState> stableFiles = new LinkedHashMap<>();
+
+        for (Iterator<Map.Entry<File, FileState>> iter = pending.entrySet().iterator(); iter.hasNext(); ) {
+            Map.Entry<File, FileState> entry = iter.next();
+            FileState current = FileState.of(entry.getKey());
+
+            if (current == null) {
+                iter.remove();
+            } else if (!current.equals(entry.getValue())) {
+                entry.setValue(current);
+            } else if (now - entry.getValue().observedAt >= stableMs) {
+                stableFiles.put(entry.getKey(), current);
+                iter.remove();
+            }
+        }
+
+        if (stableFiles.isEmpty()) {
+            return;
+        }
+
+        // only marked as processed once the result is known
+        boolean singleApk = stableFiles.size() == 1;
+        SignTool.Result result = execute(stableFiles.keySet());
+        for (SignTool.ApkResult apkResult : result.apkResults) {
+            FileState state = stableFiles.remove(apkResult.apkFile.getAbsoluteFile());
+            if (state != null) {
+                processed.put(apkResult.apkFile.getAbsoluteFile(), state);
+            }
+        }
+
+        // the batch was aborted, every apk without a result is run on its own so one broken apk cannot hold back the others
+        for (Map.Entry<File, FileState> entry : stableFiles.entrySet()) {
+            if (singleApk || execute(Collections.singleton(entry.getKey())).error) {
+                console.logErr("could not process " + entry.getKey() + ", it is processed again once it changes");
+            }
+            processed.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private SignTool.Result execute(Collection<File> files) {
+        Arg batchArgs = args.copy();
+        batchArgs.apkFile = files.stream().map(File::getAbsolutePath).toArray(String[]::new);
+        return SignTool.execute(batchArgs, console, keyStoreCache);
+    }
+
+    private static final class FileState {
+        final long size;
+        final long lastModified;
+        final long observedAt;
+
+        private FileState(long size, long lastModified, long observedAt) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.observedAt = observedAt;
+        }
+
+        static FileState of(File file) {
+            if (!file.isFile()) {
+                return null;
+            }
+            return new FileState(file.length(), file.lastModified(), System.currentTimeMillis());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            FileState fileState = (FileState) o;
+            return size == fileState.size && lastModified == fileState.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(size) + Long.hashCode(lastModified);
+        }
+    }
+}
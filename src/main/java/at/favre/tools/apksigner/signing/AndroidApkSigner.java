@@ -0,0 +1,248 @@
+package at.favre.tools.apksigner.signing;
+
+import com.android.apksig.ApkSigner;
+import com.android.apksig.DefaultApkSignerEngine;
+import com.android.apksig.SigningCertificateLineage;
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSinks;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.ReadableDataSink;
+import com.android.apksig.util.RunnablesExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Signs APKs with the apksig library directly, using the same defaults as the <code>sign</code> command of
+ * apksigner.jar from Google. The signer configs are created once and reused for every APK, instances are safe to be
+ * used from multiple threads.
+ * <p>
+ * The signer engine is created here instead of by {@link ApkSigner}, since only the engine accepts an executor for the
+ * v2/v3 chunk digests.
+ * <p>
+ * Input and output are accessed through file channels, apksig only holds the entry currently copied, its 1 MiB digest
+ * chunks and the central directory in memory. The heap needed is therefore independent of the apk size, multi GB apks
+ * can be signed with a small heap (see <code>LargeApkBenchmark</code>); only the v4 Merkle tree grows with the apk
+ * (about 1/128 of its size).
+ */
+public class AndroidApkSigner {
+
+    private final List<DefaultApkSignerEngine.SignerConfig> signerConfigs;
+    private final SigningCertificateLineage lineage;
+    private final boolean v1SigningEnabled;
+    private final boolean v2SigningEnabled;
+    private final boolean v3SigningEnabled;
+    private final boolean v4SigningEnabled;
+    private final Integer minSdkVersion;
+    private final File v4OutputFolder;
+    private final RunnablesExecutor digestExecutor;
+
+    /**
+     * Create new signer with all schemes enabled
+     *
+     * @param signingConfigs used to sign, one or multiple; keys must already be loaded by {@link SigningConfigGen}
+     * @param lineageFile    optional v3 signature lineage, may be null
+     * @throws Exception if the lineage cannot be loaded
+     */
+    public AndroidApkSigner(List<SigningConfig> signingConfigs, File lineageFile) throws Exception {
+        this(signingConfigs, lineageFile, true, true, true, true, null, null);
+    }
+
+    /**
+     * Create new signer
+     *
+     * @param signingConfigs   used to sign, one or multiple; keys must already be loaded by {@link SigningConfigGen}
+     * @param lineageFile      optional v3 signature lineage, may be null
+     * @param v1SigningEnabled JAR signing, digests every entry; only needed for devices below API 24
+     * @param v2SigningEnabled APK Signature Scheme v2
+     * @param v3SigningEnabled APK Signature Scheme v3
+     * @param v4SigningEnabled APK Signature Scheme v4, needs v2 or v3
+     * @param minSdkVersion    lowest API level the signature has to support, null to read it from the manifest
+     * @param v4OutputFolder   where the v4 signatures are written, null to write them next to the signed apk
+     * @throws Exception if the lineage cannot be loaded
+     */
+    public AndroidApkSigner(List<SigningConfig> signingConfigs, File lineageFile, boolean v1SigningEnabled, boolean v2SigningEnabled,
+                            boolean v3SigningEnabled, boolean v4SigningEnabled, Integer minSdkVersion, File v4OutputFolder) throws Exception {
+        this(signingConfigs, lineageFile, v1SigningEnabled, v2SigningEnabled, v3SigningEnabled, v4SigningEnabled, minSdkVersion, v4OutputFolder, null);
+    }
+
+    /**
+     * Create new signer
+     *
+     * @param digestExecutor computes the v2/v3 chunk digests, e.g. a shared {@link DigestExecutor}; null for the apksig
+     *                       default of a new pool with a thread per core for every apk
+     * @see #AndroidApkSigner(List, File, boolean, boolean, boolean, boolean, Integer, File)
+     */
+    public AndroidApkSigner(List<SigningConfig> signingConfigs, File lineageFile, boolean v1SigningEnabled, boolean v2SigningEnabled,
+                            boolean v3SigningEnabled, boolean v4SigningEnabled, Integer minSdkVersion, File v4OutputFolder,
+                            RunnablesExecutor digestExecutor) throws Exception {
+        if (!v1SigningEnabled && !v2SigningEnabled && !v3SigningEnabled) {
+            throw new IllegalArgumentException("at least one of v1, v2 and v3 signing must be enabled");
+        }
+        if (v4SigningEnabled && !v2SigningEnabled && !v3SigningEnabled) {
+            throw new IllegalArgumentException("v4 signing needs v2 or v3 signing");
+        }
+        if (v4OutputFolder != null && !v4OutputFolder.isDirectory() && !v4OutputFolder.mkdirs()) {
+            throw new IllegalArgumentException("could not create v4 signature folder " + v4OutputFolder);
+        }
+
+        List<DefaultApkSignerEngine.SignerConfig> configs = new ArrayList<>(signingConfigs.size());
+        for (SigningConfig signingConfig : signingConfigs) {
+            configs.add(createSignerConfig(signingConfig));
+        }
+        this.signerConfigs = Collections.unmodifiableList(configs);
+        this.lineage = lineageFile != null ? SigningCertificateLineage.readFromFile(lineageFile) : null;
+        this.v1SigningEnabled = v1SigningEnabled;
+        this.v2SigningEnabled = v2SigningEnabled;
+        this.v3SigningEnabled = v3SigningEnabled;
+        this.v4SigningEnabled = v4SigningEnabled;
+        this.minSdkVersion = minSdkVersion;
+        this.v4OutputFolder = v4OutputFolder;
+        this.digestExecutor = digestExecutor;
+    }
+
+    /**
+     * Signs given APK with the enabled schemes. The v4 signature is written to {@link #getV4SignatureFile(File)}; apksig
+     * computes its Merkle tree leaf level on multiple threads.
+     *
+     * @param inputApk  to sign
+     * @param outputApk target, may be the same as input file
+     * @throws Exception if APK is malformed or signing fails
+     */
+    public void sign(File inputApk, File outputApk) throws Exception {
+        sign(inputApk, outputApk, false);
+    }
+
+    /**
+     * Signs given APK like {@link #sign(File, File)}, optionally aligning it in the same pass: the signer reads an
+     * {@link ZipAligner#align(DataSource) aligned view} of the input, so the apk is read and written once and no
+     * intermediate aligned file is created. The output is the same as aligning to a file and signing that.
+     *
+     * @param inputApk  to sign
+     * @param outputApk target, may be the same as input file
+     * @param zipAlign  if true, the input is aligned with {@link ZipAligner} while it is signed
+     * @throws Exception if APK is malformed or signing fails
+     */
+    public void sign(File inputApk, File outputApk, boolean zipAlign) throws Exception {
+        boolean inPlace = inputApk.getCanonicalPath().equals(outputApk.getCanonicalPath());
+        File tmpOutputApk = inPlace ? File.createTempFile("uapksigner-", ".apk", outputApk.getParentFile()) : outputApk;
+
+        try {
+            try (FileChannel inputChannel = FileChannel.open(inputApk.toPath(), StandardOpenOption.READ);
+                 RandomAccessFile outputFile = new RandomAccessFile(tmpOutputApk, "rw")) {
+                outputFile.setLength(0);
+                DataSource input = DataSources.asDataSource(inputChannel);
+                if (zipAlign) {
+                    input = new ZipAligner().align(input);
+                }
+                DataSink output = DataSinks.asDataSink(outputFile);
+                sign(input, output, DataSources.asDataSource(outputFile.getChannel()), getV4SignatureFile(outputApk));
+            }
+
+            if (inPlace) {
+                Files.move(tmpOutputApk.toPath(), outputApk.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if (inPlace) {
+                tmpOutputApk.delete();
+            }
+        }
+    }
+
+    /**
+     * Signs an apk that is already in memory, e.g. an {@link ZipAligner#align(DataSource) aligned view}, into memory. The
+     * v4 signature is written to {@link #getV4SignatureFile(File)} of given output file.
+     *
+     * @param inputApk  to sign
+     * @param outputApk where the caller stores the signed apk, only used to name the v4 signature
+     * @return the signed apk
+     * @throws Exception if APK is malformed or signing fails
+     */
+    public ReadableDataSink sign(DataSource inputApk, File outputApk) throws Exception {
+        // signing only adds the signature block and the v1 META-INF entries
+        ReadableDataSink output = DataSinks.newInMemoryDataSink((int) Math.min(Integer.MAX_VALUE - 8, inputApk.size() + 64 * 1024));
+        sign(inputApk, output, output, getV4SignatureFile(outputApk));
+        return output;
+    }
+
+    private void sign(DataSource input, DataSink output, DataSource outputReader, File v4SignatureFile) throws Exception {
+        try (DefaultApkSignerEngine engine = new DefaultApkSignerEngine.Builder(signerConfigs, getMinSdkVersion(input))
+                .setOtherSignersSignaturesPreserved(false)
+                .setV1SigningEnabled(v1SigningEnabled)
+                .setV2SigningEnabled(v2SigningEnabled)
+                .setV3SigningEnabled(v3SigningEnabled)
+                .setSigningCertificateLineage(lineage)
+                .build()) {
+
+            if (digestExecutor != null) {
+                engine.setExecutor(digestExecutor);
+            }
+
+            ApkSigner.Builder builder = new ApkSigner.Builder(engine)
+                    .setInputApk(input)
+                    .setOutputApk(output, outputReader);
+
+            // with an engine v4 is signed whenever an output file is set
+            if (v4SignatureFile != null) {
+                builder.setV4SignatureOutputFile(v4SignatureFile);
+            }
+
+            builder.build().sign();
+        }
+    }
+
+    private int getMinSdkVersion(DataSource input) throws Exception {
+        if (minSdkVersion != null) {
+            return minSdkVersion;
+        }
+        return ApkUtils.getMinSdkVersionFromBinaryAndroidManifest(ApkUtils.getAndroidManifest(input));
+    }
+
+    /**
+     * @param outputApk signed apk
+     * @return the file the v4 signature of given apk is written to (apk name with ".idsig" suffix), null if v4 is disabled
+     * @throws IOException if the canonical path of the apk cannot be resolved
+     */
+    public File getV4SignatureFile(File outputApk) throws IOException {
+        if (!v4SigningEnabled) {
+            return null;
+        }
+        File canonicalApk = outputApk.getCanonicalFile();
+        return new File(v4OutputFolder != null ? v4OutputFolder : canonicalApk.getParentFile(), canonicalApk.getName() + ".idsig");
+    }
+
+    /**
+     * @return the enabled signature schemes and the min sdk version, e.g. to be used as part of a cache key
+     */
+    public String getSchemes() {
+        StringJoiner schemes = new StringJoiner(",");
+        if (v1SigningEnabled) {
+            schemes.add("v1");
+        }
+        if (v2SigningEnabled) {
+            schemes.add("v2");
+        }
+        if (v3SigningEnabled) {
+            schemes.add("v3");
+        }
+        if (v4SigningEnabled) {
+            schemes.add("v4");
+        }
+        return schemes + (minSdkVersion != null ? ";minSdk=" + minSdkVersion : "");
+    }
+
+    private static DefaultApkSignerEngine.SignerConfig createSignerConfig(SigningConfig signingConfig) {
+        return new DefaultApkSignerEngine.SignerConfig.Builder(signingConfig.ksAlias, signingConfig.privateKey, signingConfig.certificateChain).build();
+    }
+}
@@ -2,10 +2,14 @@ package at.favre.tools.apksigner.signing;
 
 import at.favre.lib.bytes.Bytes;
 import com.android.apksig.ApkVerifier;
+import com.android.apksig.util.DataSource;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.security.MessageDigest;
 import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.DSAKey;
 import java.security.interfaces.DSAParams;
@@ -18,13 +22,30 @@ import java.util.stream.Collectors;
  * Mirrors the logic of the apksigner.jar from Google, but provides more structural log output.
  */
 public class AndroidApkSignerVerify {
+    private static final int MAX_CACHED_CERTS = 64;
+    private static final Map<Bytes, CertInfo> CERT_INFO_CACHE = new LinkedHashMap<Bytes, CertInfo>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Bytes, CertInfo> eldest) {
+            return size() > MAX_CACHED_CERTS;
+        }
+    };
 
     public Result verify(File apk, Integer minSdkVersion, Integer maxSdkVersion, File v4SchemeSignatureFile, boolean warningsTreatedAsErrors) throws Exception {
+        return verify(new ApkVerifier.Builder(apk), minSdkVersion, maxSdkVersion, v4SchemeSignatureFile, warningsTreatedAsErrors);
+    }
+
+    /**
+     * Same as {@link #verify(File, Integer, Integer, File, boolean)} for an apk that is not (yet) stored in a file
+     */
+    public Result verify(DataSource apk, Integer minSdkVersion, Integer maxSdkVersion, File v4SchemeSignatureFile, boolean warningsTreatedAsErrors) throws Exception {
+        return verify(new ApkVerifier.Builder(apk), minSdkVersion, maxSdkVersion, v4SchemeSignatureFile, warningsTreatedAsErrors);
+    }
+
+    private Result verify(ApkVerifier.Builder builder, Integer minSdkVersion, Integer maxSdkVersion, File v4SchemeSignatureFile, boolean warningsTreatedAsErrors) throws Exception {
         StringBuilder logMsg = new StringBuilder();
         List<CertInfo> certInfoList = new ArrayList<>();
         List<String> warnings = new ArrayList<>();
 
-        ApkVerifier.Builder builder = new ApkVerifier.Builder(apk);
         if (minSdkVersion != null) {
             builder.setMinCheckedPlatformVersion(minSdkVersion);
         }
@@ -48,44 +69,10 @@ public class AndroidApkSignerVerify {
             logMsg.append("Verified using v4 scheme (APK Signature Scheme v4): ").append(apkVerifierResult.isVerifiedUsingV4Scheme());
             logMsg.append("Number of signers: ").append(signerCertificates.size());
 
-            MessageDigest sha256Digest = MessageDigest.getInstance("SHA-256");
-            MessageDigest sha1Digest = MessageDigest.getInstance("SHA-1");
             iter = signerCertificates.iterator();
 
             while (iter.hasNext()) {
-                CertInfo certInfo = new CertInfo();
-
-                X509Certificate x509Certificate = (X509Certificate) iter.next();
-                byte[] encodedCert = x509Certificate.getEncoded();
-
-                certInfo.subjectDn = "Subject: " + x509Certificate.getSubjectDN().toString();
-                certInfo.issuerDn = "Issuer: " + x509Certificate.getIssuerDN().toString();
-                certInfo.sigAlgo = x509Certificate.getSigAlgName();
-                certInfo.certSha1 = Bytes.wrap(sha1Digest.digest(encodedCert)).encodeHex();
-                certInfo.certSha256 = Bytes.wrap(sha256Digest.digest(encodedCert)).encodeHex();
-                certInfo.expiry = x509Certificate.getNotAfter();
-                certInfo.beginValidity = x509Certificate.getNotBefore();
-
-                PublicKey publicKey = x509Certificate.getPublicKey();
-
-                certInfo.pubAlgo = publicKey.getAlgorithm();
-                int keySize = -1;
-                if (publicKey instanceof RSAKey) {
-                    keySize = ((RSAKey) publicKey).getModulus().bitLength();
-                } else if (publicKey instanceof ECKey) {
-                    keySize = ((ECKey) publicKey).getParams().getOrder().bitLength();
-                } else if (publicKey instanceof DSAKey) {
-                    DSAParams encodedKey = ((DSAKey) publicKey).getParams();
-                    if (encodedKey != null) {
-                        keySize = encodedKey.getP().bitLength();
-                    }
-                }
-
-                certInfo.pubKeysize = keySize;
-                byte[] pubKey = publicKey.getEncoded();
-                certInfo.pubSha1 = Bytes.wrap(sha1Digest.digest(pubKey)).encodeHex();
-                certInfo.pubSha256 = Bytes.wrap(sha256Digest.digest(pubKey)).encodeHex();
-                certInfoList.add(certInfo);
+                certInfoList.add(certInfo((X509Certificate) iter.next()));
             }
         } else {
             logMsg.append("DOES NOT VERIFY\n");
@@ -296,19 +283,141 @@ public class AndroidApkSignerVerify {
         }
     }
 
-    //CHECKSTYLE:OFF -- I do want a concise class with only public access
+    /**
+     * Returns the info of given certificate; the same certificate (compared by its encoded form) always returns the
+     * same instance, so its digests and strings are computed at most once per process
+     *
+     * @param certificate signer certificate
+     * @return shared info
+     * @throws CertificateEncodingException if the certificate cannot be encoded
+     */
+    public static CertInfo certInfo(X509Certificate certificate) throws CertificateEncodingException {
+        Bytes encoded = Bytes.wrap(certificate.getEncoded());
+        synchronized (CERT_INFO_CACHE) {
+            return CERT_INFO_CACHE.computeIfAbsent(encoded, e -> new CertInfo(certificate, e.array()));
+        }
+    }
+
+    /**
+     * Same as {@link #certInfo(X509Certificate)}, but parses the certificate only if it is not cached yet
+     *
+     * @param encodedCertificate DER encoded certificate e.g. from {@link CertInfo#getEncoded()}
+     * @return shared info
+     * @throws CertificateException if the certificate cannot be parsed
+     */
+    public static CertInfo certInfo(byte[] encodedCertificate) throws CertificateException {
+        Bytes encoded = Bytes.wrap(encodedCertificate);
+        synchronized (CERT_INFO_CACHE) {
+            CertInfo certInfo = CERT_INFO_CACHE.get(encoded);
+            if (certInfo == null) {
+                X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+                        .generateCertificate(new ByteArrayInputStream(encodedCertificate));
+                certInfo = new CertInfo(certificate, encoded.array());
+                CERT_INFO_CACHE.put(encoded, certInfo);
+            }
+            return certInfo;
+        }
+    }
+
+    /**
+     * Describes a signer certificate. Every value is only computed when it is first read (e.g. when it is logged),
+     * so a pre-check that only needs the verification status does not pay for digests and DN formatting.
+     */
     public static class CertInfo {
-        public String certSha1;
-        public String certSha256;
-        public String pubSha1;
-        public String pubSha256;
-        public String subjectDn;
-        public String issuerDn;
-        public String sigAlgo;
-        public String pubAlgo;
-        public int pubKeysize;
-        public Date expiry;
-        public Date beginValidity;
+        private final X509Certificate certificate;
+        private final byte[] encoded;
+        private String certSha1;
+        private String certSha256;
+        private String pubSha1;
+        private String pubSha256;
+        private String subjectDn;
+        private String issuerDn;
+        private Integer pubKeysize;
+
+        public CertInfo(X509Certificate certificate, byte[] encoded) {
+            this.certificate = certificate;
+            this.encoded = encoded;
+        }
+
+        public byte[] getEncoded() {
+            return encoded.clone();
+        }
+
+        public synchronized String getCertSha1() {
+            if (certSha1 == null) {
+                certSha1 = Bytes.wrap(encoded).hashSha1().encodeHex();
+            }
+            return certSha1;
+        }
+
+        public synchronized String getCertSha256() {
+            if (certSha256 == null) {
+                certSha256 = Bytes.wrap(encoded).hashSha256().encodeHex();
+            }
+            return certSha256;
+        }
+
+        public synchronized String getPubSha1() {
+            if (pubSha1 == null) {
+                pubSha1 = Bytes.wrap(certificate.getPublicKey().getEncoded()).hashSha1().encodeHex();
+            }
+            return pubSha1;
+        }
+
+        public synchronized String getPubSha256() {
+            if (pubSha256 == null) {
+                pubSha256 = Bytes.wrap(certificate.getPublicKey().getEncoded()).hashSha256().encodeHex();
+            }
+            return pubSha256;
+        }
+
+        public synchronized String getSubjectDn() {
+            if (subjectDn == null) {
+                subjectDn = "Subject: " + certificate.getSubjectDN().toString();
+            }
+            return subjectDn;
+        }
+
+        public synchronized String getIssuerDn() {
+            if (issuerDn == null) {
+                issuerDn = "Issuer: " + certificate.getIssuerDN().toString();
+            }
+            return issuerDn;
+        }
+
+        public String getSigAlgo() {
+            return certificate.getSigAlgName();
+        }
+
+        public String getPubAlgo() {
+            return certificate.getPublicKey().getAlgorithm();
+        }
+
+        public synchronized int getPubKeysize() {
+            if (pubKeysize == null) {
+                PublicKey publicKey = certificate.getPublicKey();
+                int keySize = -1;
+                if (publicKey instanceof RSAKey) {
+                    keySize = ((RSAKey) publicKey).getModulus().bitLength();
+                } else if (publicKey instanceof ECKey) {
+                    keySize = ((ECKey) publicKey).getParams().getOrder().bitLength();
+                } else if (publicKey instanceof DSAKey) {
+                    DSAParams encodedKey = ((DSAKey) publicKey).getParams();
+                    if (encodedKey != null) {
+                        keySize = encodedKey.getP().bitLength();
+                    }
+                }
+                pubKeysize = keySize;
+            }
+            return pubKeysize;
+        }
+
+        public Date getExpiry() {
+            return certificate.getNotAfter();
+        }
+
+        public Date getBeginValidity() {
+            return certificate.getNotBefore();
+        }
     }
-    //CHECKSTYLE:ON
 }
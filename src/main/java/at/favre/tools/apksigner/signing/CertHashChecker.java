@@ -26,7 +26,7 @@ public class CertHashChecker {
             return new Result(false, "not the same count of signatures and provided check hashes (found " + verifyResult.certInfoList.size() + " signatures)", hashes);
         }
 
-        List<String> apkHashes = verifyResult.certInfoList.stream().map(certInfo -> certInfo.certSha256).distinct().sorted().collect(Collectors.toList());
+        List<String> apkHashes = verifyResult.certInfoList.stream().map(certInfo -> certInfo.getCertSha256()).distinct().sorted().collect(Collectors.toList());
         List<String> providedHashes = Arrays.stream(hashes).distinct().sorted().collect(Collectors.toList());
 
         for (int i = 0; i < apkHashes.size(); i++) {
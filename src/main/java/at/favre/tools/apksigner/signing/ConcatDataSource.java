@@ -0,0 +1,113 @@
+package at.favre.tools.apksigner.signing;
+
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only {@link DataSource} presenting multiple data sources one after another, e.g. rewritten zip headers between
+ * slices of the unchanged entry data of the original file. Nothing is copied unless a single buffer spanning multiple
+ * parts is requested.
+ */
+final class ConcatDataSource implements DataSource {
+    private final DataSource[] parts;
+    /**
+     * start offset of every part, the last element is the total size
+     */
+    private final long[] offsets;
+
+    ConcatDataSource(List<DataSource> parts) {
+        List<DataSource> nonEmpty = new ArrayList<>(parts.size());
+        for (DataSource part : parts) {
+            if (part.size() > 0) {
+                nonEmpty.add(part);
+            }
+        }
+        this.parts = nonEmpty.toArray(new DataSource[0]);
+        this.offsets = new long[this.parts.length + 1];
+        for (int i = 0; i < this.parts.length; i++) {
+            offsets[i + 1] = offsets[i] + this.parts[i].size();
+        }
+    }
+
+    @Override
+    public long size() {
+        return offsets[parts.length];
+    }
+
+    @Override
+    public void feed(long offset, long size, DataSink sink) throws IOException {
+        checkRange(offset, size);
+        for (int i = partIndex(offset); size > 0; i++) {
+            long partOffset = offset - offsets[i];
+            long length = Math.min(size, parts[i].size() - partOffset);
+            parts[i].feed(partOffset, length, sink);
+            offset += length;
+            size -= length;
+        }
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(long offset, int size) throws IOException {
+        checkRange(offset, size);
+        if (size == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        int i = partIndex(offset);
+        if (offset + size <= offsets[i + 1]) {
+            return parts[i].getByteBuffer(offset - offsets[i], size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        copyTo(offset, size, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void copyTo(long offset, int size, ByteBuffer dest) throws IOException {
+        checkRange(offset, size);
+        for (int i = partIndex(offset); size > 0; i++) {
+            long partOffset = offset - offsets[i];
+            int length = (int) Math.min(size, parts[i].size() - partOffset);
+            parts[i].copyTo(partOffset, length, dest);
+            offset += length;
+            size -= length;
+        }
+    }
+
+    @Override
+    public DataSource slice(long offset, long size) {
+        checkRange(offset, size);
+        if (offset == 0 && size == size()) {
+            return this;
+        }
+        List<DataSource> sliced = new ArrayList<>();
+        for (int i = partIndex(offset); size > 0; i++) {
+            long partOffset = offset - offsets[i];
+            long length = Math.min(size, parts[i].size() - partOffset);
+            sliced.add(parts[i].slice(partOffset, length));
+            offset += length;
+            size -= length;
+        }
+        return sliced.size() == 1 ? sliced.get(0) : new ConcatDataSource(sliced);
+    }
+
+    /**
+     * @return index of the part containing given offset, only called with offsets smaller than the size
+     */
+    private int partIndex(long offset) {
+        int index = Arrays.binarySearch(offsets, 0, parts.length, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private void checkRange(long offset, long size) {
+        if (offset < 0 || size < 0 || offset > size() || size > size() - offset) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", size: " + size + ", source size: " + size());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package at.favre.tools.apksigner.signing;
+
+import com.android.apksig.util.RunnablesExecutor;
+import com.android.apksig.util.RunnablesProvider;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounded executor for the 1 MiB chunk digests of the v2/v3 signing block, shared by all signers of a run. The apksig
+ * default starts a new pool with a thread per core for every apk, so signing multiple apks in parallel would run
+ * cores times apk threads digest threads.
+ * <p>
+ * The calling thread always digests itself and additionally borrows up to <code>parallelism - 1</code> helper threads,
+ * but only those that are idle: a single apk gets all helpers, while apks signed in parallel share them instead of
+ * waiting for each other. A run therefore never uses more than <code>apk threads + parallelism - 1</code> digest
+ * threads.
+ */
+public final class DigestExecutor implements RunnablesExecutor, Closeable {
+
+    private final int parallelism;
+    private final Semaphore idleHelpers;
+    private final ExecutorService helperPool;
+
+    /**
+     * @param parallelism max threads digesting a single apk including the calling thread, 1 to digest single threaded
+     */
+    public DigestExecutor(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("digest parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        this.idleHelpers = new Semaphore(parallelism - 1);
+        this.helperPool = parallelism > 1 ? Executors.newFixedThreadPool(parallelism - 1, runnable -> {
+            Thread thread = new Thread(runnable, "apk-digest");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * @param apkThreads number of apks processed in parallel
+     * @return the parallelism that keeps apk and digest threads together at the number of available cores
+     */
+    public static int defaultParallelism(int apkThreads) {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - apkThreads + 1);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void execute(RunnablesProvider provider) {
+        List<Future<?>> helpers = new ArrayList<>();
+        while (helpers.size() < parallelism - 1 && idleHelpers.tryAcquire()) {
+            try {
+                helpers.add(helperPool.submit(() -> {
+                    try {
+                        provider.createRunnable().run();
+                    } finally {
+                        idleHelpers.release();
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                idleHelpers.release();
+                break;
+            }
+        }
+
+        Throwable failure = null;
+        try {
+            provider.createRunnable().run();
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+
+        // every runnable takes chunks from the same supplier, so the digests are only complete after all of them returned
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (ExecutionException e) {
+                failure = failure != null ? failure : e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = failure != null ? failure : e;
+            }
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException("could not compute chunk digests", failure);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (helperPool != null) {
+            helperPool.shutdownNow();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "digest threads per apk: " + parallelism;
+    }
+}
@@ -0,0 +1,96 @@
+package at.favre.tools.apksigner.signing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Cheap check whether an APK carries any signature at all, without verifying it. Only the end of central directory
+ * record, the 24 bytes in front of the central directory (APK Signing Block footer used by v2/v3/v3.1) and the
+ * central directory entry names (v1 <code>META-INF/*.SF|RSA|DSA|EC</code>) are read; no entry data is touched.
+ * <p>
+ * A positive result does not mean the signature is valid, use {@link AndroidApkSignerVerify} for that.
+ */
+public class SignatureProbe {
+    static final byte[] APK_SIG_BLOCK_MAGIC = "APK Sig Block 42".getBytes(StandardCharsets.US_ASCII);
+    private static final int APK_SIG_BLOCK_FOOTER_SIZE = 8 + 16;
+    private static final int APK_SIG_BLOCK_MIN_SIZE = 32;
+
+    /**
+     * Probes given file
+     *
+     * @param apk to check
+     * @return result
+     * @throws IOException if file cannot be read or is not a supported zip file
+     */
+    public Result probe(File apk) throws IOException {
+        try (FileChannel in = FileChannel.open(apk.toPath(), StandardOpenOption.READ)) {
+            ZipAligner.EndOfCentralDirectory eocd = ZipAligner.EndOfCentralDirectory.read(in);
+            boolean signingBlock = hasSigningBlock(in, eocd.cdOffset);
+
+            boolean v1Signature = false;
+            for (ZipAligner.CentralDirectoryEntry entry : ZipAligner.CentralDirectoryEntry.readAll(in, eocd)) {
+                if (isV1SignatureEntry(entry.name)) {
+                    v1Signature = true;
+                    break;
+                }
+            }
+            return new Result(signingBlock, v1Signature);
+        }
+    }
+
+    private static boolean hasSigningBlock(FileChannel in, long cdOffset) throws IOException {
+        if (cdOffset < APK_SIG_BLOCK_MIN_SIZE) {
+            return false;
+        }
+
+        ByteBuffer footer = ZipAligner.readFully(in, cdOffset - APK_SIG_BLOCK_FOOTER_SIZE, APK_SIG_BLOCK_FOOTER_SIZE);
+        for (int i = 0; i < APK_SIG_BLOCK_MAGIC.length; i++) {
+            if (footer.get(8 + i) != APK_SIG_BLOCK_MAGIC[i]) {
+                return false;
+            }
+        }
+        long blockSize = footer.getLong(0);
+        return blockSize >= APK_SIG_BLOCK_FOOTER_SIZE && blockSize + 8 <= cdOffset;
+    }
+
+    static boolean isV1SignatureEntry(String name) {
+        String upperName = name.toUpperCase(Locale.US);
+        if (!upperName.startsWith("META-INF/") || upperName.indexOf('/', "META-INF/".length()) != -1) {
+            return false;
+        }
+        return upperName.endsWith(".SF") || upperName.endsWith(".RSA") || upperName.endsWith(".DSA") || upperName.endsWith(".EC");
+    }
+
+    public static final class Result {
+        /**
+         * an APK Signing Block (v2, v3, v3.1 schemes) is present in front of the central directory
+         */
+        public final boolean signingBlock;
+        /**
+         * JAR signature files are present in META-INF
+         */
+        public final boolean v1Signature;
+
+        Result(boolean signingBlock, boolean v1Signature) {
+            this.signingBlock = signingBlock;
+            this.v1Signature = v1Signature;
+        }
+
+        public boolean isSigned() {
+            return signingBlock || v1Signature;
+        }
+
+        @Override
+        public String toString() {
+            return "SignatureProbe.Result{" +
+                    "signingBlock=" + signingBlock +
+                    ", v1Signature=" + v1Signature +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package at.favre.tools.apksigner.signing;
+
+import at.favre.lib.bytes.Bytes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Content addressed cache of signed apks. The key is derived from the input apk content, the identity of the
+ * signing certificates and lineage and every option that changes the output bytes; the same key therefore always
+ * maps to an equivalent signed artifact and the tool can copy it instead of aligning and signing again.
+ * <p>
+ * Entries are written to a temp file and atomically moved into place, so the directory can be shared between
+ * concurrent processes (e.g. on a shared volume). The cache is bounded by size; least recently used entries
+ * (by file modification time, which is updated on every hit) are evicted first. Temp files left behind by an
+ * interrupted store are removed on eviction once they are older than {@link #TMP_GRACE_PERIOD_MS}.
+ */
+public class SigningCache {
+    private static final String APK_SUFFIX = ".apk";
+    private static final String IDSIG_SUFFIX = ".idsig";
+    private static final String TMP_PREFIX = "tmp-";
+    private static final String TMP_SUFFIX = ".part";
+    /**
+     * temp files older than this are left over from an interrupted store, younger ones may still be written
+     */
+    static final long TMP_GRACE_PERIOD_MS = 60 * 60 * 1000;
+
+    private final File cacheDir;
+    private final long maxSizeBytes;
+
+    /**
+     * Create new cache
+     *
+     * @param cacheDir     where entries are stored, will be created if it does not exist
+     * @param maxSizeBytes upper bound of the sum of all entries, must be positive
+     */
+    public SigningCache(File cacheDir, long maxSizeBytes) {
+        if (maxSizeBytes <= 0) {
+            throw new IllegalArgumentException("max cache size must be positive: " + maxSizeBytes);
+        }
+        if (!cacheDir.exists() && !cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+            throw new IllegalArgumentException("could not create cache directory " + cacheDir);
+        }
+        if (!cacheDir.isDirectory()) {
+            throw new IllegalArgumentException("cache location must be a directory: " + cacheDir);
+        }
+        this.cacheDir = cacheDir;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Creates the cache key
+     *
+     * @param inputSha256    sha256 of the unsigned input apk
+     * @param signingConfigs used for signing, the certificate chains are part of the key
+     * @param lineageSha256  sha256 of the lineage file or null if none is used
+     * @param options        every other option influencing the output, e.g. schemes, zipalign mode or tool version
+     * @return hex encoded key
+     */
+    public static String createKey(String inputSha256, List<SigningConfig> signingConfigs, String lineageSha256, String... options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, "input:" + inputSha256);
+            for (SigningConfig signingConfig : signingConfigs) {
+                update(digest, "signer:");
+                for (X509Certificate certificate : signingConfig.certificateChain) {
+                    digest.update(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+                }
+            }
+            update(digest, "lineage:" + lineageSha256);
+            update(digest, "options:" + Arrays.toString(options));
+            return Bytes.wrap(digest.digest()).encodeHex();
+        } catch (Exception e) {
+            throw new IllegalStateException("could not create signing cache key: " + e.getMessage(), e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Copies the cached signed apk (and its v4 signature if cached) to given location
+     *
+     * @param key       from {@link #createKey(String, List, String, String...)}
+     * @param outputApk target file, will be overwritten
+     * @return true if it was a hit and the file was copied, false if not cached (output apk is left untouched)
+     */
+    public boolean restore(String key, File outputApk) {
+        return restore(key, outputApk, idsigFile(key).isFile() ? new File(outputApk.getAbsolutePath() + IDSIG_SUFFIX) : null);
+    }
+
+    /**
+     * Same as {@link #restore(String, File)} with a custom location of the v4 signature
+     *
+     * @param outputIdsig target of the cached v4 signature or null to not restore it; if set, an entry without v4
+     *                    signature (e.g. still being stored by another process) is a miss
+     */
+    public boolean restore(String key, File outputApk, File outputIdsig) {
+        File cachedApk = apkFile(key);
+        File cachedIdsig = idsigFile(key);
+        try {
+            if (!cachedApk.isFile() || (outputIdsig != null && !cachedIdsig.isFile())) {
+                return false;
+            }
+            // apk first, a failed copy must not leave a v4 signature without its apk; if only the idsig fails the
+            // caller signs again and replaces the apk
+            copyAtomically(cachedApk, outputApk);
+            if (outputIdsig != null) {
+                copyAtomically(cachedIdsig, outputIdsig);
+            }
+            long now = System.currentTimeMillis();
+            cachedApk.setLastModified(now);
+            cachedIdsig.setLastModified(now);
+            return true;
+        } catch (IOException e) {
+            // entry evicted concurrently or otherwise unreadable; treat as miss
+            return false;
+        }
+    }
+
+    /**
+     * Adds a signed apk to the cache and evicts least recently used entries if the cache grows too large.
+     *
+     * @param key       from {@link #createKey(String, List, String, String...)}
+     * @param signedApk the signed output; if a <code>.idsig</code> file exists next to it, it is cached as well
+     * @throws IOException if the entry could not be written
+     */
+    public void store(String key, File signedApk) throws IOException {
+        store(key, signedApk, new File(signedApk.getAbsolutePath() + IDSIG_SUFFIX));
+    }
+
+    /**
+     * Same as {@link #store(String, File)} with a custom location of the v4 signature
+     *
+     * @param idsig v4 signature of the signed apk, cached if not null and it exists
+     */
+    public void store(String key, File signedApk, File idsig) throws IOException {
+        if (idsig != null && idsig.isFile()) {
+            copyAtomically(idsig, idsigFile(key));
+        }
+        copyAtomically(signedApk, apkFile(key));
+        evict();
+    }
+
+    /**
+     * Copies into a temp file in the target directory first, so a reader never sees a partially written file
+     */
+    private static void copyAtomically(File source, File target) throws IOException {
+        File tmp = File.createTempFile(TMP_PREFIX, TMP_SUFFIX, target.getAbsoluteFile().getParentFile());
+        try {
+            Files.copy(source.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    synchronized void evict() {
+        deleteStaleTempFiles();
+
+        File[] apks = cacheDir.listFiles((dir, name) -> name.endsWith(APK_SUFFIX));
+        if (apks == null) {
+            return;
+        }
+
+        List<File> entries = new ArrayList<>(Arrays.asList(apks));
+        entries.sort(Comparator.comparingLong(File::lastModified));
+
+        long size = 0;
+        for (File entry : entries) {
+            size += entrySize(entry);
+        }
+
+        for (int i = 0; i < entries.size() - 1 && size > maxSizeBytes; i++) {
+            File entry = entries.get(i);
+            size -= entrySize(entry);
+            new File(entry.getAbsolutePath() + IDSIG_SUFFIX).delete();
+            entry.delete();
+        }
+    }
+
+    private void deleteStaleTempFiles() {
+        long staleBefore = System.currentTimeMillis() - TMP_GRACE_PERIOD_MS;
+        File[] tmpFiles = cacheDir.listFiles((dir, name) -> name.startsWith(TMP_PREFIX) && name.endsWith(TMP_SUFFIX));
+        if (tmpFiles != null) {
+            for (File tmpFile : tmpFiles) {
+                if (tmpFile.lastModified() < staleBefore) {
+                    tmpFile.delete();
+                }
+            }
+        }
+    }
+
+    private static long entrySize(File apk) {
+        return apk.length() + new File(apk.getAbsolutePath() + IDSIG_SUFFIX).length();
+    }
+
+    private File apkFile(String key) {
+        return new File(cacheDir, key + APK_SUFFIX);
+    }
+
+    private File idsigFile(String key) {
+        return new File(cacheDir, key + APK_SUFFIX + IDSIG_SUFFIX);
+    }
+
+    @Override
+    public String toString() {
+        return "signing cache: " + cacheDir.getAbsolutePath() + " (max " + (maxSizeBytes / (1024 * 1024)) + " MiB)";
+    }
+}
@@ -3,6 +3,9 @@ package at.favre.tools.apksigner.signing;
 import at.favre.tools.apksigner.util.FileUtil;
 
 import java.io.File;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.List;
 
 /**
  * Model for defining a signing config
@@ -19,8 +22,14 @@ public class SigningConfig {
     public final String ksAlias;
     public final String ksPass;
     public final String ksKeyPass;
+    /**
+     * The unlocked key of {@link #ksAlias}, loaded once when the config is created
+     */
+    public final PrivateKey privateKey;
+    public final List<X509Certificate> certificateChain;
 
-    public SigningConfig(KeystoreLocation location, int configIndex, boolean isDebugType, File keystore, String ksAlias, String ksPass, String ksKeyPass) {
+    public SigningConfig(KeystoreLocation location, int configIndex, boolean isDebugType, File keystore, String ksAlias, String ksPass, String ksKeyPass,
+                         PrivateKey privateKey, List<X509Certificate> certificateChain) {
         this.location = location;
         this.configIndex = configIndex;
         this.isDebugType = isDebugType;
@@ -28,6 +37,8 @@ public class SigningConfig {
         this.ksAlias = ksAlias;
         this.ksPass = ksPass;
         this.ksKeyPass = ksKeyPass;
+        this.privateKey = privateKey;
+        this.certificateChain = certificateChain;
     }
 
     public String description() throws Exception {
@@ -1,19 +1,29 @@
 package at.favre.tools.apksigner.signing;
 
+import at.favre.lib.bytes.Bytes;
 import at.favre.tools.apksigner.ui.Arg;
 import at.favre.tools.apksigner.util.CmdUtil;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Scanner;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.*;
 
 /**
  * Responsible of creating {@link SigningConfig} from the arguments. Will decide weather to
  * use a debug keystore (and its logic) or a release keystore (or multiple).
+ * <p>
+ * Every keystore is loaded and every private key is unlocked exactly once while creating the configs, so wrong
+ * passwords or aliases fail before any APK is processed and the keys can be reused for the whole run.
  */
 public class SigningConfigGen {
 
@@ -21,11 +31,27 @@ public class SigningConfigGen {
     private static String NIX_DEBUG_KS_DEFAULT = "~/.android/debug.keystore";
     private static String DEBUG_KEYSTORE = "debug.keystore";
 
+    private final Map<String, KeyStore> loadedKeyStores;
     private File tempDebugFile;
 
     public final List<SigningConfig> signingConfig;
 
     public SigningConfigGen(List<Arg.SignArgs> signArgsList, boolean ksIsDebug) {
+        this(signArgsList, ksIsDebug, null);
+    }
+
+    /**
+     * Create configs and optionally share loaded keystores with other instances (e.g. across the jobs of a
+     * long-running process).
+     *
+     * @param signArgsList  keystore arguments
+     * @param ksIsDebug     if the passed keystore is a debug keystore
+     * @param keyStoreCache if not null, loaded keystores are stored in and reused from this thread safe map; entries
+     *                      are keyed by path, file size, modification date and password so a changed keystore or
+     *                      wrong password is never served from the cache
+     */
+    public SigningConfigGen(List<Arg.SignArgs> signArgsList, boolean ksIsDebug, Map<String, KeyStore> keyStoreCache) {
+        loadedKeyStores = keyStoreCache != null ? keyStoreCache : new HashMap<>();
         signingConfig = generate(signArgsList, ksIsDebug);
     }
 
@@ -83,7 +109,7 @@ public class SigningConfigGen {
                 }
             }
 
-            return Collections.singletonList(new SigningConfig(
+            return Collections.singletonList(createConfig(
                     location,
                     0, true,
                     debugKeystore,
@@ -127,7 +153,7 @@ public class SigningConfigGen {
 
                 s.close();
 
-                signingConfigs.add(new SigningConfig(
+                signingConfigs.add(createConfig(
                         SigningConfig.KeystoreLocation.RELEASE_CUSTOM,
                         signArgs.index, false, keystore,
                         signArgs.alias,
@@ -138,6 +164,62 @@ public class SigningConfigGen {
         }
     }
 
+    private SigningConfig createConfig(SigningConfig.KeystoreLocation location, int configIndex, boolean isDebugType, File keystore,
+                                       String ksAlias, String ksPass, String ksKeyPass) {
+        try {
+            KeyStore keyStore = loadKeyStore(keystore, ksPass);
+
+            if (!keyStore.containsAlias(ksAlias)) {
+                throw new IllegalArgumentException("alias '" + ksAlias + "' not found in keystore " + keystore);
+            }
+
+            Key key;
+            try {
+                key = keyStore.getKey(ksAlias, ksKeyPass.toCharArray());
+            } catch (UnrecoverableKeyException e) {
+                throw new IllegalArgumentException("could not unlock key '" + ksAlias + "' in keystore " + keystore + " - wrong key password?", e);
+            }
+
+            if (!(key instanceof PrivateKey)) {
+                throw new IllegalArgumentException("alias '" + ksAlias + "' in keystore " + keystore + " is not a private key entry");
+            }
+
+            Certificate[] chain = keyStore.getCertificateChain(ksAlias);
+            if (chain == null || chain.length == 0) {
+                throw new IllegalArgumentException("no certificate found for alias '" + ksAlias + "' in keystore " + keystore);
+            }
+
+            List<X509Certificate> certificates = new ArrayList<>(chain.length);
+            for (Certificate certificate : chain) {
+                certificates.add((X509Certificate) certificate);
+            }
+
+            return new SigningConfig(location, configIndex, isDebugType, keystore, ksAlias, ksPass, ksKeyPass,
+                    (PrivateKey) key, Collections.unmodifiableList(certificates));
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("could not load signing key for config [" + configIndex + "] from " + keystore + ": " + e.getMessage(), e);
+        }
+    }
+
+    private KeyStore loadKeyStore(File keystore, String ksPass) throws Exception {
+        String cacheKey = keystore.getCanonicalPath() + "|" + keystore.length() + "|" + keystore.lastModified() + "|"
+                + Bytes.from(ksPass, StandardCharsets.UTF_8).hashSha256().encodeHex();
+        KeyStore keyStore = loadedKeyStores.get(cacheKey);
+
+        if (keyStore == null) {
+            keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            try (InputStream in = new FileInputStream(keystore)) {
+                keyStore.load(in, ksPass.toCharArray());
+            } catch (Exception e) {
+                throw new IllegalArgumentException("could not load keystore " + keystore + " - wrong keystore password? " + e.getMessage(), e);
+            }
+            loadedKeyStores.put(cacheKey, keyStore);
+        }
+        return keyStore;
+    }
+
     public void cleanUp() {
         if (tempDebugFile != null && tempDebugFile.exists()) {
             tempDebugFile.delete();
@@ -0,0 +1,256 @@
+package at.favre.tools.apksigner.signing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Persistent index of signature verification results, so repeated verify-only runs over the same files only pass
+ * new or modified apks to the verifier. An entry is keyed on the canonical path and is only used if size,
+ * modification time and content sha256 of the file are still the same; the stored summary (schemes, encoded signer
+ * certificates, warnings and errors) is everything the tool reports about a verification.
+ * <p>
+ * The whole index is loaded into memory and written back with {@link #save()} to a temp file that is moved into
+ * place, so a crashed run never leaves a corrupt index. An index written by another tool version or with other
+ * verification options is ignored, since the verifier might judge the same file differently. Concurrent runs sharing
+ * an index do not corrupt it, but the last one to save wins.
+ */
+public class VerificationIndex {
+    private static final int FORMAT_VERSION = 2;
+
+    private final File indexFile;
+    private final String verifierSettings;
+    private final boolean reverify;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean modified;
+
+    private static final class Entry {
+        final long size;
+        final long lastModified;
+        final String sha256;
+        final AndroidApkSignerVerify.Result result;
+
+        Entry(long size, long lastModified, String sha256, AndroidApkSignerVerify.Result result) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Loads the index, a missing, unreadable or outdated index file is treated as empty
+     *
+     * @param indexFile        where the index is stored, parent folders are created on save
+     * @param verifierSettings tool version and every option changing the verification result (e.g. min sdk version), the
+     *                         index is discarded if it was written with other settings
+     * @param reverify         if true, every lookup misses so all files are verified again and their entries replaced
+     */
+    public VerificationIndex(File indexFile, String verifierSettings, boolean reverify) {
+        this.indexFile = indexFile;
+        this.verifierSettings = String.valueOf(verifierSettings);
+        this.reverify = reverify;
+        if (indexFile.isFile()) {
+            try {
+                load();
+            } catch (IOException e) {
+                // corrupt or truncated index, it is rewritten on the next save
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * @param apk    file to look up
+     * @param sha256 current content hash of the file
+     * @return the stored result if the file is unchanged, null otherwise or if created with reverify
+     * @throws IOException if the canonical path cannot be resolved
+     */
+    public synchronized AndroidApkSignerVerify.Result get(File apk, String sha256) throws IOException {
+        if (reverify) {
+            return null;
+        }
+        Entry entry = entries.get(apk.getCanonicalPath());
+        if (entry != null && entry.size == apk.length() && entry.lastModified == apk.lastModified() && entry.sha256.equals(sha256)) {
+            return entry.result;
+        }
+        return null;
+    }
+
+    /**
+     * Stores or replaces the result of given file
+     *
+     * @param apk    verified file
+     * @param sha256 content hash of the file at the time it was verified
+     * @param result of the verification
+     * @throws IOException if the canonical path cannot be resolved
+     */
+    public synchronized void put(File apk, String sha256, AndroidApkSignerVerify.Result result) throws IOException {
+        entries.put(apk.getCanonicalPath(), new Entry(apk.length(), apk.lastModified(), Objects.requireNonNull(sha256), result));
+        modified = true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the index if it was changed, entries of files that no longer exist are removed
+     *
+     * @throws IOException if the index file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        for (Iterator<String> iterator = entries.keySet().iterator(); iterator.hasNext(); ) {
+            if (!new File(iterator.next()).isFile()) {
+                iterator.remove();
+                modified = true;
+            }
+        }
+        if (!modified) {
+            return;
+        }
+
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent);
+        }
+        File tmp = File.createTempFile("index-", ".part", parent);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                write(out);
+            }
+            try {
+                Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            modified = false;
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != FORMAT_VERSION || !verifierSettings.equals(in.readUTF())) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String sha256 = in.readUTF();
+                entries.put(path, new Entry(size, lastModified, sha256, readResult(in)));
+            }
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(verifierSettings);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            out.writeUTF(mapEntry.getKey());
+            out.writeLong(entry.size);
+            out.writeLong(entry.lastModified);
+            out.writeUTF(entry.sha256);
+            writeResult(out, entry.result);
+        }
+    }
+
+    private static AndroidApkSignerVerify.Result readResult(DataInputStream in) throws IOException {
+        boolean verified = in.readBoolean();
+        List<String> warnings = readStrings(in);
+        List<String> errors = readStrings(in);
+        String log = readNullable(in);
+        boolean v1 = in.readBoolean();
+        boolean v2 = in.readBoolean();
+        boolean v3 = in.readBoolean();
+        boolean v31 = in.readBoolean();
+        boolean v4 = in.readBoolean();
+
+        int certCount = in.readInt();
+        List<AndroidApkSignerVerify.CertInfo> certInfoList = new ArrayList<>(certCount);
+        for (int i = 0; i < certCount; i++) {
+            byte[] encoded = new byte[in.readInt()];
+            in.readFully(encoded);
+            try {
+                certInfoList.add(AndroidApkSignerVerify.certInfo(encoded));
+            } catch (CertificateException e) {
+                throw new IOException("invalid certificate in index", e);
+            }
+        }
+        return new AndroidApkSignerVerify.Result(verified, warnings, errors, log, v1, v2, v3, v31, v4, certInfoList);
+    }
+
+    private static void writeResult(DataOutputStream out, AndroidApkSignerVerify.Result result) throws IOException {
+        out.writeBoolean(result.verified);
+        writeStrings(out, result.warnings);
+        writeStrings(out, result.errors);
+        writeNullable(out, result.log);
+        out.writeBoolean(result.v1Schema);
+        out.writeBoolean(result.v2Schema);
+        out.writeBoolean(result.v3Schema);
+        out.writeBoolean(result.v31Schema);
+        out.writeBoolean(result.v4Schema);
+
+        out.writeInt(result.certInfoList.size());
+        for (AndroidApkSignerVerify.CertInfo certInfo : result.certInfoList) {
+            byte[] encoded = certInfo.getEncoded();
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readNullable(in));
+        }
+        return values;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeNullable(out, value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Strings longer than {@link DataOutputStream#writeUTF(String)} supports are truncated, they are only log messages
+     */
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value.length() > 16_000 ? value.substring(0, 16_000) : value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "verification index: " + indexFile.getAbsolutePath() + " (" + size() + " entries)";
+    }
+}
@@ -0,0 +1,137 @@
+package at.favre.tools.apksigner.signing;
+
+import at.favre.lib.bytes.Bytes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Extracts the built-in zipalign executable and its libraries once into a persistent cache directory instead of
+ * a new temp directory per run. The directory is named after the sha256 of all extracted resources, so every
+ * bundled zipalign version gets its own directory and a stale or tampered one is never used.
+ * <p>
+ * Every run verifies the hashes of the cached files against the resources and re-extracts on mismatch. Extraction
+ * and verification happen under an exclusive file lock, so concurrent processes sharing the cache wait for each
+ * other instead of reading half-written binaries.
+ */
+final class ZipAlignBinaryCache {
+    private static final String DIR_PREFIX = "zipalign-";
+
+    private final File cacheRoot;
+
+    ZipAlignBinaryCache(File cacheRoot) {
+        this.cacheRoot = cacheRoot;
+    }
+
+    /**
+     * Returns the cached executable, extracting it and its libraries first if needed.
+     *
+     * @param executableResource class path resource of the zipalign executable
+     * @param libResources       class path resources of the libraries needed by the executable
+     * @param libFolder          folder relative to the executable where the libraries are expected, empty for the same folder
+     * @param executable         if the files need the posix executable permission
+     * @return the executable in the cache directory
+     * @throws IOException if the cache directory cannot be written
+     */
+    File extract(String executableResource, List<String> libResources, String libFolder, boolean executable) throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put(new File(executableResource).getName(), readResource(executableResource));
+        for (String libResource : libResources) {
+            String name = new File(libResource).getName();
+            files.put(libFolder.isEmpty() ? name : libFolder + "/" + name, readResource(libResource));
+        }
+
+        MessageDigest contentDigest = sha256();
+        List<String> fileHashes = new ArrayList<>();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            String hash = Bytes.wrap(sha256().digest(file.getValue())).encodeHex();
+            fileHashes.add(hash);
+            contentDigest.update((file.getKey() + "\u0000" + hash + "\u0000").getBytes("UTF-8"));
+        }
+        String key = Bytes.wrap(contentDigest.digest()).encodeHex();
+        File dir = new File(cacheRoot, DIR_PREFIX + key);
+
+        if (!cacheRoot.exists() && !cacheRoot.mkdirs() && !cacheRoot.isDirectory()) {
+            throw new IOException("could not create " + cacheRoot);
+        }
+
+        // file locks are held per process, threads of this process have to be serialized separately
+        synchronized (ZipAlignBinaryCache.class) {
+            try (FileChannel lockChannel = FileChannel.open(new File(cacheRoot, DIR_PREFIX + key + ".lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+
+                int i = 0;
+                for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                    File target = new File(dir, file.getKey());
+                    if (!fileHashes.get(i++).equals(hashFile(target)) || (executable && !target.canExecute())) {
+                        write(target, file.getValue(), executable);
+                    }
+                }
+            }
+        }
+        return new File(dir, files.keySet().iterator().next());
+    }
+
+    private static void write(File target, byte[] content, boolean executable) throws IOException {
+        File parent = target.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent);
+        }
+
+        File tmp = File.createTempFile(target.getName(), ".part", parent);
+        try {
+            Files.write(tmp.toPath(), content);
+            if (executable) {
+                Files.setPosixFilePermissions(tmp.toPath(), EnumSet.of(PosixFilePermission.OWNER_READ,
+                        PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE));
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static String hashFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        return Bytes.wrap(sha256().digest(Files.readAllBytes(file.toPath()))).encodeHex();
+    }
+
+    private byte[] readResource(String resource) throws IOException {
+        try (InputStream in = Objects.requireNonNull(getClass().getClassLoader().getResourceAsStream(resource), "could not load built-in resource " + resource)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,12 +3,13 @@ package at.favre.tools.apksigner.signing;
 import at.favre.tools.apksigner.ui.Arg;
 import at.favre.tools.apksigner.util.CmdUtil;
 import at.favre.tools.apksigner.util.FileUtil;
+import at.favre.tools.apksigner.util.PathExecutableResolver;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.attribute.PosixFilePermission;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Responsible for deciding and finding the zipalign executable used by the tool.
@@ -19,12 +20,23 @@ public class ZipAlignExecutor {
     }
 
     public static final String ZIPALIGN_NAME = "zipalign";
+    private static final String PATH_LOOKUP_CACHE_FILE = "path-lookup.properties";
 
     private String[] zipAlignExecutable;
     private Location location;
+    private final File cacheRoot;
     private File tmpFolder;
 
     public ZipAlignExecutor(Arg arg) {
+        this(arg, FileUtil.getUserCacheDir());
+    }
+
+    /**
+     * @param arg              arguments
+     * @param cacheRoot where the PATH lookup is memoized and the built-in zipalign is extracted to and reused from
+     */
+    ZipAlignExecutor(Arg arg, File cacheRoot) {
+        this.cacheRoot = cacheRoot;
         findLocation(arg);
     }
 
@@ -37,7 +49,7 @@ public class ZipAlignExecutor {
                     location = Location.CUSTOM;
                 }
             } else {
-                File pathFile = CmdUtil.checkAndGetFromPATHEnvVar(ZIPALIGN_NAME);
+                File pathFile = new PathExecutableResolver(new File(cacheRoot, PATH_LOOKUP_CACHE_FILE)).resolve(ZIPALIGN_NAME);
 
                 if (pathFile != null) {
                     zipAlignExecutable = new String[]{pathFile.getAbsolutePath()};
@@ -48,75 +60,29 @@ public class ZipAlignExecutor {
                 if (zipAlignExecutable == null) {
                     CmdUtil.OS osType = CmdUtil.getOsType();
 
-                    String zipAlignFileName, libFolder;
+                    String zipAlignFileName, libFolder = "";
                     List<String> libFiles = new ArrayList<>();
                     if (osType == CmdUtil.OS.WIN) {
                         zipAlignFileName = "win-zipalign_33_0_2.exe";
-                        libFolder = "binary-lib/windows-33_0_2/";
-                        libFiles.add(libFolder + "libwinpthread-1.dll");
+                        libFiles.add("binary-lib/windows-33_0_2/libwinpthread-1.dll");
                     } else if (osType == CmdUtil.OS.MAC) {
                         zipAlignFileName = "mac-zipalign-33_0_2";
                     } else {
                         zipAlignFileName = "linux-zipalign-33_0_2";
-                        libFolder = "binary-lib/linux-lib64-33_0_2/";
-                        libFiles.add(libFolder + "libc++.so");
+                        libFolder = "lib64";
+                        libFiles.add("binary-lib/linux-lib64-33_0_2/libc++.so");
                     }
 
-                    tmpFolder = Files.createTempDirectory("uapksigner-").toFile();
-                    File tmpZipAlign = File.createTempFile(zipAlignFileName, null, tmpFolder);
-                    Files.copy(
-                            Objects.requireNonNull(
-                                    getClass().getClassLoader().getResourceAsStream(zipAlignFileName),
-                                    "could not load built-in zipalign " + zipAlignFileName
-                            ),
-                            tmpZipAlign.toPath(),
-                            StandardCopyOption.REPLACE_EXISTING
-                    );
-
-                    if (osType != CmdUtil.OS.WIN) {
-                        Set<PosixFilePermission> perms = new HashSet<>();
-                        perms.add(PosixFilePermission.OWNER_EXECUTE);
-
-                        Files.setPosixFilePermissions(tmpZipAlign.toPath(), perms);
-
-                        File libFolderFile = new File(tmpFolder, "lib64");
-                        if (!libFolderFile.mkdirs()) {
-                            throw new IllegalStateException("could not create " + libFolderFile);
-                        }
-
-                        for (String libFile : libFiles) {
-                            File lib64File = new File(libFolderFile, new File(libFile).getName());
-
-                            if (!lib64File.createNewFile()) {
-                                throw new IllegalStateException("could not create " + lib64File);
-                            }
-
-                            Files.setPosixFilePermissions(lib64File.toPath(), perms);
-
-                            Files.copy(
-                                    Objects.requireNonNull(
-                                            getClass().getClassLoader().getResourceAsStream(libFile),
-                                            "could not load built-in lib file " + libFile
-                                    ),
-                                    lib64File.toPath(),
-                                    StandardCopyOption.REPLACE_EXISTING
-                            );
-                        }
-                    } else {
-                        for (String libFile : libFiles) {
-                            System.out.println(libFile);
-                            System.out.println(tmpFolder);
-
-                            Files.copy(
-                                    Objects.requireNonNull(getClass().getClassLoader().getResourceAsStream(libFile), "could not load lib file " + libFile),
-                                    new File(tmpFolder, new File(libFile).getName()).toPath(),
-                                    StandardCopyOption.REPLACE_EXISTING
-                            );
-                        }
-
+                    File executable;
+                    try {
+                        executable = new ZipAlignBinaryCache(cacheRoot).extract(zipAlignFileName, libFiles, libFolder, osType != CmdUtil.OS.WIN);
+                    } catch (IOException | UnsupportedOperationException e) {
+                        // e.g. read-only home, fall back to a temp directory which is deleted again in cleanUp()
+                        tmpFolder = Files.createTempDirectory("uapksigner-").toFile();
+                        executable = new ZipAlignBinaryCache(tmpFolder).extract(zipAlignFileName, libFiles, libFolder, osType != CmdUtil.OS.WIN);
                     }
 
-                    zipAlignExecutable = new String[]{tmpZipAlign.getAbsolutePath()};
+                    zipAlignExecutable = new String[]{executable.getAbsolutePath()};
                     location = Location.BUILT_IN;
                 }
             }
@@ -0,0 +1,513 @@
+package at.favre.tools.apksigner.signing;
+
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-process Java implementation of <code>zipalign -p 4</code>. Copies every entry of the input zip verbatim
+ * (compressed data is never inflated) and only rewrites the extra field of the local file headers so that the data of
+ * uncompressed (STORED) entries starts on a 4 byte boundary and the data of uncompressed shared libraries
+ * (<code>.so</code>) starts on a 4 KiB page boundary.
+ * <p>
+ * Besides writing a new file, the aligned zip can be created as a {@link DataSource} view of the input with
+ * {@link #align(DataSource)}, which lets the signer consume it without an intermediate file.
+ * <p>
+ * Only plain zip files are supported, zip64 archives will be rejected.
+ */
+public class ZipAligner {
+    public static final int ALIGNMENT = 4;
+    public static final int PAGE_ALIGNMENT = 4096;
+
+    static final int EOCD_SIG = 0x06054b50;
+    static final int CD_SIG = 0x02014b50;
+    static final int LFH_SIG = 0x04034b50;
+    static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+    static final int EOCD_MIN_SIZE = 22;
+    static final int CD_HEADER_SIZE = 46;
+    static final int LFH_SIZE = 30;
+    static final int METHOD_STORED = 0;
+    static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+
+    /**
+     * Extra field header id used by Android tooling to pad local file headers, see apksig ApkSigner
+     */
+    private static final int ALIGNMENT_EXTRA_ID = 0xd935;
+    private static final int ALIGNMENT_EXTRA_MIN_SIZE = 6;
+
+    /**
+     * Aligns given zip file and writes it to out file
+     *
+     * @param inFile  to align, will not be changed
+     * @param outFile target, will be overwritten
+     * @return summary of the align process
+     * @throws IOException if the file cannot be read or is not a supported zip
+     */
+    public Result align(File inFile, File outFile) throws IOException {
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return align(in, out);
+        }
+    }
+
+    private Result align(FileChannel in, FileChannel out) throws IOException {
+        Layout layout = layout(DataSources.asDataSource(in));
+        for (Segment segment : layout.segments) {
+            if (segment.header != null) {
+                writeFully(out, segment.header.duplicate());
+            } else {
+                transferFully(in, segment.inputOffset, segment.length, out);
+            }
+        }
+        return layout.result;
+    }
+
+    /**
+     * Aligns given zip without copying it: the returned data source consists of the rewritten local file headers,
+     * central directory and end of central directory record in memory and slices of <code>in</code> for the entry
+     * data. Reading it gives the same bytes {@link #align(File, File)} would write.
+     *
+     * @param in zip to align, must not change while the returned data source is used
+     * @return aligned zip
+     * @throws IOException if the data cannot be read or is not a supported zip
+     */
+    public DataSource align(DataSource in) throws IOException {
+        List<Segment> segments = layout(in).segments;
+        List<DataSource> parts = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            parts.add(segment.header != null ? DataSources.asDataSource(segment.header.duplicate()) : in.slice(segment.inputOffset, segment.length));
+        }
+        return new ConcatDataSource(parts);
+    }
+
+    /**
+     * Computes the aligned zip as a sequence of new header bytes and ranges of the input that are copied unchanged
+     */
+    private static Layout layout(DataSource in) throws IOException {
+        EndOfCentralDirectory eocd = EndOfCentralDirectory.read(in);
+        List<CentralDirectoryEntry> entries = CentralDirectoryEntry.readAll(in, eocd);
+        List<Segment> segments = new ArrayList<>(entries.size() * 2 + 1);
+
+        long outPos = 0;
+        int alignedEntries = 0;
+        long paddingBytes = 0;
+        ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream((int) eocd.cdSize);
+
+        for (CentralDirectoryEntry entry : entries) {
+            ByteBuffer lfh = readFully(in, entry.localHeaderOffset, LFH_SIZE);
+            if (lfh.getInt(0) != LFH_SIG) {
+                throw new IOException("no local file header found for " + entry.name + " at offset " + entry.localHeaderOffset);
+            }
+            int nameLength = lfh.getShort(26) & 0xffff;
+            int extraLength = lfh.getShort(28) & 0xffff;
+            ByteBuffer name = readFully(in, entry.localHeaderOffset + LFH_SIZE, nameLength);
+            byte[] extra = toArray(readFully(in, entry.localHeaderOffset + LFH_SIZE + nameLength, extraLength));
+            long dataOffset = entry.localHeaderOffset + LFH_SIZE + nameLength + extraLength;
+
+            if (entry.method == METHOD_STORED) {
+                byte[] strippedExtra = stripAlignmentPadding(extra);
+                int padding = padding(outPos + LFH_SIZE + nameLength + strippedExtra.length, requiredAlignment(entry));
+                extra = padding > 0 ? appendAlignmentField(strippedExtra, padding, requiredAlignment(entry)) : strippedExtra;
+                alignedEntries++;
+                paddingBytes += padding;
+            }
+
+            lfh.putShort(28, (short) extra.length);
+            ByteBuffer header = ByteBuffer.allocate(LFH_SIZE + nameLength + extra.length);
+            header.put(lfh).put(name).put(extra).flip();
+
+            long dataLength = entry.compressedSize;
+            if ((entry.flags & FLAG_DATA_DESCRIPTOR) != 0) {
+                ByteBuffer descriptor = readFully(in, dataOffset + entry.compressedSize, 4);
+                dataLength += descriptor.getInt(0) == DATA_DESCRIPTOR_SIG ? 16 : 12;
+            }
+
+            centralDirectory.write(entry.withLocalHeaderOffset(outPos));
+            segments.add(new Segment(header));
+            segments.add(new Segment(dataOffset, dataLength));
+            outPos += header.remaining() + dataLength;
+        }
+
+        byte[] cd = centralDirectory.toByteArray();
+        ByteBuffer eocdRecord = eocd.withCentralDirectory(outPos, cd.length);
+        ByteBuffer tail = ByteBuffer.allocate(cd.length + eocdRecord.remaining());
+        tail.put(cd).put(eocdRecord).flip();
+        segments.add(new Segment(tail));
+
+        return new Layout(segments, new Result(entries.size(), alignedEntries, paddingBytes));
+    }
+
+    /**
+     * Checks if every STORED entry of given zip is aligned to {@link #ALIGNMENT} (like <code>zipalign -c 4</code>)
+     *
+     * @param file to check
+     * @return true if aligned
+     * @throws IOException if the file cannot be read or is not a supported zip
+     */
+    public boolean isAligned(File file) throws IOException {
+        return verify(file, false).isAligned();
+    }
+
+    /**
+     * Checks the alignment of every STORED entry of given zip. Only the central directory and the name and extra
+     * length fields of the local file headers are read, entry data is never touched.
+     *
+     * @param file                     to check
+     * @param pageAlignSharedLibraries if true, uncompressed <code>.so</code> files must be aligned to
+     *                                 {@link #PAGE_ALIGNMENT} (like <code>zipalign -c -p 4</code>)
+     * @return result containing all misaligned entries
+     * @throws IOException if the file cannot be read or is not a supported zip
+     */
+    public VerifyResult verify(File file, boolean pageAlignSharedLibraries) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return verify(DataSources.asDataSource(in), pageAlignSharedLibraries);
+        }
+    }
+
+    /**
+     * Same as {@link #verify(File, boolean)} for a zip that is not (yet) stored in a file
+     *
+     * @param in                       zip to check
+     * @param pageAlignSharedLibraries if true, uncompressed <code>.so</code> files must be aligned to
+     *                                 {@link #PAGE_ALIGNMENT}
+     * @return result containing all misaligned entries
+     * @throws IOException if the data cannot be read or is not a supported zip
+     */
+    public VerifyResult verify(DataSource in, boolean pageAlignSharedLibraries) throws IOException {
+        List<CentralDirectoryEntry> entries = CentralDirectoryEntry.readAll(in, EndOfCentralDirectory.read(in));
+        List<MisalignedEntry> misalignedEntries = new ArrayList<>();
+        int storedEntries = 0;
+
+        for (CentralDirectoryEntry entry : entries) {
+            if (entry.method != METHOD_STORED) {
+                continue;
+            }
+            storedEntries++;
+
+            ByteBuffer lengths = readFully(in, entry.localHeaderOffset + 26, 4);
+            long dataOffset = entry.localHeaderOffset + LFH_SIZE + (lengths.getShort(0) & 0xffff) + (lengths.getShort(2) & 0xffff);
+            int alignment = pageAlignSharedLibraries ? requiredAlignment(entry) : ALIGNMENT;
+            if (dataOffset % alignment != 0) {
+                misalignedEntries.add(new MisalignedEntry(entry.name, dataOffset, alignment));
+            }
+        }
+        return new VerifyResult(entries.size(), storedEntries, misalignedEntries);
+    }
+
+    static int requiredAlignment(CentralDirectoryEntry entry) {
+        return entry.name.endsWith(".so") ? PAGE_ALIGNMENT : ALIGNMENT;
+    }
+
+    private static int padding(long dataOffset, int alignment) {
+        int padding = (int) ((alignment - (dataOffset % alignment)) % alignment);
+        if (padding == 0) {
+            return 0;
+        }
+        while (padding < ALIGNMENT_EXTRA_MIN_SIZE) {
+            padding += alignment;
+        }
+        return padding;
+    }
+
+    private static byte[] appendAlignmentField(byte[] extra, int padding, int alignment) {
+        ByteBuffer buffer = ByteBuffer.allocate(extra.length + padding).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(extra);
+        buffer.putShort((short) ALIGNMENT_EXTRA_ID);
+        buffer.putShort((short) (padding - 4));
+        buffer.putShort((short) alignment);
+        return buffer.array();
+    }
+
+    /**
+     * Removes alignment padding from a previous run (either apksig style 0xd935 fields or zipalign style zero bytes)
+     * so aligning the same file twice does not grow the headers.
+     */
+    static byte[] stripAlignmentPadding(byte[] extra) {
+        ByteBuffer buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(extra.length);
+
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int id = buffer.getShort() & 0xffff;
+            int size = buffer.getShort() & 0xffff;
+
+            if (size > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+
+            if (id != ALIGNMENT_EXTRA_ID && !(id == 0 && size == 0)) {
+                result.write(extra, start, 4 + size);
+            }
+            buffer.position(start + 4 + size);
+        }
+
+        boolean onlyZeroesLeft = true;
+        for (int i = buffer.position(); i < extra.length; i++) {
+            onlyZeroesLeft &= extra[i] == 0;
+        }
+        if (!onlyZeroesLeft) {
+            result.write(extra, buffer.position(), buffer.remaining());
+        }
+        return result.toByteArray();
+    }
+
+    static ByteBuffer readFully(FileChannel in, long position, int length) throws IOException {
+        return readFully(DataSources.asDataSource(in), position, length);
+    }
+
+    /**
+     * @return a new little endian buffer with a copy of the data, so it can be modified
+     */
+    static ByteBuffer readFully(DataSource in, long position, int length) throws IOException {
+        if (position < 0 || position + length > in.size()) {
+            throw new IOException("unexpected end of file at " + Math.min(Math.max(position, 0), in.size()));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        in.copyTo(position, length, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] array = new byte[buffer.remaining()];
+        buffer.get(array);
+        return array;
+    }
+
+    private static int writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return length;
+    }
+
+    private static long transferFully(FileChannel in, long position, long length, FileChannel out) throws IOException {
+        long transferred = 0;
+        while (transferred < length) {
+            long count = in.transferTo(position + transferred, length - transferred, out);
+            if (count <= 0) {
+                throw new IOException("unexpected end of file at " + (position + transferred));
+            }
+            transferred += count;
+        }
+        return length;
+    }
+
+    static final class EndOfCentralDirectory {
+        final long offset;
+        final long cdOffset;
+        final long cdSize;
+        final int entryCount;
+        private final byte[] raw;
+
+        private EndOfCentralDirectory(long offset, ByteBuffer record) {
+            this.offset = offset;
+            this.entryCount = record.getShort(10) & 0xffff;
+            this.cdSize = record.getInt(12) & 0xffffffffL;
+            this.cdOffset = record.getInt(16) & 0xffffffffL;
+            this.raw = toArray(record.duplicate());
+        }
+
+        static EndOfCentralDirectory read(FileChannel in) throws IOException {
+            return read(DataSources.asDataSource(in));
+        }
+
+        static EndOfCentralDirectory read(DataSource in) throws IOException {
+            long fileSize = in.size();
+            if (fileSize < EOCD_MIN_SIZE) {
+                throw new IOException("not a zip file, too small");
+            }
+
+            int maxCommentLength = (int) Math.min(0xffff, fileSize - EOCD_MIN_SIZE);
+            ByteBuffer tail = readFully(in, fileSize - EOCD_MIN_SIZE - maxCommentLength, EOCD_MIN_SIZE + maxCommentLength);
+
+            for (int commentLength = 0; commentLength <= maxCommentLength; commentLength++) {
+                int pos = tail.limit() - EOCD_MIN_SIZE - commentLength;
+                if (tail.getInt(pos) == EOCD_SIG && (tail.getShort(pos + 20) & 0xffff) == commentLength) {
+                    ByteBuffer record = tail.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                    record.position(pos);
+                    record = record.slice().order(ByteOrder.LITTLE_ENDIAN);
+                    EndOfCentralDirectory eocd = new EndOfCentralDirectory(fileSize - tail.limit() + pos, record);
+                    if (eocd.entryCount == 0xffff || eocd.cdSize == 0xffffffffL || eocd.cdOffset == 0xffffffffL) {
+                        throw new IOException("zip64 archives are not supported");
+                    }
+                    if (eocd.cdOffset + eocd.cdSize > eocd.offset) {
+                        throw new IOException("central directory out of bounds");
+                    }
+                    return eocd;
+                }
+            }
+            throw new IOException("not a zip file, no end of central directory record found");
+        }
+
+        ByteBuffer withCentralDirectory(long cdOffset, long cdSize) {
+            ByteBuffer record = ByteBuffer.wrap(raw.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            record.putInt(12, (int) cdSize);
+            record.putInt(16, (int) cdOffset);
+            return record;
+        }
+    }
+
+    static final class CentralDirectoryEntry {
+        final String name;
+        final int flags;
+        final int method;
+        final long compressedSize;
+        final long localHeaderOffset;
+        private final byte[] raw;
+
+        private CentralDirectoryEntry(ByteBuffer record, String name) {
+            this.flags = record.getShort(8) & 0xffff;
+            this.method = record.getShort(10) & 0xffff;
+            this.compressedSize = record.getInt(20) & 0xffffffffL;
+            this.localHeaderOffset = record.getInt(42) & 0xffffffffL;
+            this.name = name;
+            this.raw = toArray(record.duplicate());
+        }
+
+        static List<CentralDirectoryEntry> readAll(FileChannel in, EndOfCentralDirectory eocd) throws IOException {
+            return readAll(DataSources.asDataSource(in), eocd);
+        }
+
+        static List<CentralDirectoryEntry> readAll(DataSource in, EndOfCentralDirectory eocd) throws IOException {
+            ByteBuffer cd = readFully(in, eocd.cdOffset, (int) eocd.cdSize);
+            List<CentralDirectoryEntry> entries = new ArrayList<>(eocd.entryCount);
+
+            while (cd.remaining() >= CD_HEADER_SIZE) {
+                int start = cd.position();
+                if (cd.getInt(start) != CD_SIG) {
+                    throw new IOException("invalid central directory record at offset " + (eocd.cdOffset + start));
+                }
+                int nameLength = cd.getShort(start + 28) & 0xffff;
+                int recordLength = CD_HEADER_SIZE + nameLength + (cd.getShort(start + 30) & 0xffff) + (cd.getShort(start + 32) & 0xffff);
+                if (recordLength > cd.remaining()) {
+                    throw new IOException("truncated central directory record at offset " + (eocd.cdOffset + start));
+                }
+
+                byte[] name = new byte[nameLength];
+                ByteBuffer record = cd.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                record.position(start + CD_HEADER_SIZE);
+                record.get(name);
+                record.position(start);
+                record.limit(start + recordLength);
+
+                CentralDirectoryEntry entry = new CentralDirectoryEntry(record.slice().order(ByteOrder.LITTLE_ENDIAN), new String(name, StandardCharsets.UTF_8));
+                if (entry.compressedSize == 0xffffffffL || entry.localHeaderOffset == 0xffffffffL) {
+                    throw new IOException("zip64 entries are not supported: " + entry.name);
+                }
+                entries.add(entry);
+                cd.position(start + recordLength);
+            }
+
+            if (entries.size() != eocd.entryCount) {
+                throw new IOException("expected " + eocd.entryCount + " entries in central directory but found " + entries.size());
+            }
+            return entries;
+        }
+
+        byte[] withLocalHeaderOffset(long offset) {
+            ByteBuffer record = ByteBuffer.wrap(raw.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            record.putInt(42, (int) offset);
+            return record.array();
+        }
+    }
+
+    /**
+     * Part of the aligned zip: either new header bytes or a range of the input copied unchanged
+     */
+    private static final class Segment {
+        final ByteBuffer header;
+        final long inputOffset;
+        final long length;
+
+        Segment(ByteBuffer header) {
+            this.header = header;
+            this.inputOffset = -1;
+            this.length = header.remaining();
+        }
+
+        Segment(long inputOffset, long length) {
+            this.header = null;
+            this.inputOffset = inputOffset;
+            this.length = length;
+        }
+    }
+
+    private static final class Layout {
+        final List<Segment> segments;
+        final Result result;
+
+        Layout(List<Segment> segments, Result result) {
+            this.segments = segments;
+            this.result = result;
+        }
+    }
+
+    public static final class Result {
+        public final int entries;
+        public final int alignedEntries;
+        public final long paddingBytes;
+
+        Result(int entries, int alignedEntries, long paddingBytes) {
+            this.entries = entries;
+            this.alignedEntries = alignedEntries;
+            this.paddingBytes = paddingBytes;
+        }
+
+        @Override
+        public String toString() {
+            return alignedEntries + " of " + entries + " entries uncompressed and aligned (" + paddingBytes + " bytes padding)";
+        }
+    }
+
+    public static final class VerifyResult {
+        public final int entries;
+        public final int storedEntries;
+        public final List<MisalignedEntry> misalignedEntries;
+
+        VerifyResult(int entries, int storedEntries, List<MisalignedEntry> misalignedEntries) {
+            this.entries = entries;
+            this.storedEntries = storedEntries;
+            this.misalignedEntries = Collections.unmodifiableList(misalignedEntries);
+        }
+
+        public boolean isAligned() {
+            return misalignedEntries.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return misalignedEntries.size() + " of " + storedEntries + " uncompressed entries misaligned (" + entries + " entries total)";
+        }
+    }
+
+    public static final class MisalignedEntry {
+        public final String name;
+        public final long dataOffset;
+        public final int requiredAlignment;
+
+        MisalignedEntry(String name, long dataOffset, int requiredAlignment) {
+            this.name = name;
+            this.dataOffset = dataOffset;
+            this.requiredAlignment = requiredAlignment;
+        }
+
+        @Override
+        public String toString() {
+            return name + " at offset " + dataOffset + " (" + dataOffset % requiredAlignment + " bytes off, requires " + requiredAlignment + ")";
+        }
+    }
+}
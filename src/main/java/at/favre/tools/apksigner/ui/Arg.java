@@ -8,7 +8,11 @@ import java.util.Objects;
 /**
  * The model for the passed arguments
  */
-public class Arg {
+public class Arg implements Cloneable {
+    public enum OutputFormat {
+        TEXT, NDJSON
+    }
+
     //CHECKSTYLE:OFF -- I do want a concise class with only public access
     public String[] apkFile;
     public String out;
@@ -20,13 +24,36 @@ public class Arg {
     public boolean dryRun = false;
     public boolean verbose = false;
     public boolean skipZipAlign = false;
+    public boolean zipAlignExternal = false;
     public boolean debug = false;
     public boolean onlyVerify = false;
     public boolean ksIsDebug = false;
     public boolean allowResign;
+    public boolean daemon = false;
+    public boolean forceVerify = false;
+    public boolean v1SigningEnabled = true;
+    public boolean v2SigningEnabled = true;
+    public boolean v3SigningEnabled = true;
+    public boolean v4SigningEnabled = false;
+    public Integer minSdkVersion;
+    public int threads = 1;
+    public Integer digestThreads;
+    public long cacheMaxSizeMb = 2048;
+    public long inMemoryMaxSizeMb = 0;
+    public long processTimeoutSec = 600;
+    public int maxDepth = 1;
+    public OutputFormat outputFormat = OutputFormat.TEXT;
 
     public String zipAlignPath;
+    public String cacheDir;
+    public String daemonFile;
+    public String watchDir;
+    public String reportFile;
+    public String verifyIndex;
+    public String idsigOut;
     public String[] checkCertSha256;
+    public String[] includeGlobs;
+    public String[] excludeGlobs;
     //CHECKSTYLE:ON
 
     Arg() {
@@ -51,6 +78,19 @@ public class Arg {
         this.lineageFilePath = lineageFilePath;
     }
 
+    /**
+     * Shallow copy, e.g. to run the same configuration with other apk files
+     *
+     * @return copy sharing the nested objects with this instance
+     */
+    public Arg copy() {
+        try {
+            return (Arg) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -60,23 +100,49 @@ public class Arg {
                 dryRun == arg.dryRun &&
                 verbose == arg.verbose &&
                 skipZipAlign == arg.skipZipAlign &&
+                zipAlignExternal == arg.zipAlignExternal &&
                 debug == arg.debug &&
                 onlyVerify == arg.onlyVerify &&
                 ksIsDebug == arg.ksIsDebug &&
                 allowResign == arg.allowResign &&
+                threads == arg.threads &&
+                cacheMaxSizeMb == arg.cacheMaxSizeMb &&
+                inMemoryMaxSizeMb == arg.inMemoryMaxSizeMb &&
+                processTimeoutSec == arg.processTimeoutSec &&
+                maxDepth == arg.maxDepth &&
+                daemon == arg.daemon &&
+                forceVerify == arg.forceVerify &&
+                Objects.equals(digestThreads, arg.digestThreads) &&
+                v1SigningEnabled == arg.v1SigningEnabled &&
+                v2SigningEnabled == arg.v2SigningEnabled &&
+                v3SigningEnabled == arg.v3SigningEnabled &&
+                v4SigningEnabled == arg.v4SigningEnabled &&
+                Objects.equals(minSdkVersion, arg.minSdkVersion) &&
                 Arrays.equals(apkFile, arg.apkFile) &&
                 Objects.equals(out, arg.out) &&
                 Objects.equals(signArgsList, arg.signArgsList) &&
                 Objects.equals(lineageFilePath, arg.lineageFilePath) &&
                 Objects.equals(zipAlignPath, arg.zipAlignPath) &&
-                Arrays.equals(checkCertSha256, arg.checkCertSha256);
+                Objects.equals(cacheDir, arg.cacheDir) &&
+                Objects.equals(daemonFile, arg.daemonFile) &&
+                Objects.equals(watchDir, arg.watchDir) &&
+                Objects.equals(reportFile, arg.reportFile) &&
+                Objects.equals(verifyIndex, arg.verifyIndex) &&
+                Objects.equals(idsigOut, arg.idsigOut) &&
+                outputFormat == arg.outputFormat &&
+                Arrays.equals(checkCertSha256, arg.checkCertSha256) &&
+                Arrays.equals(includeGlobs, arg.includeGlobs) &&
+                Arrays.equals(excludeGlobs, arg.excludeGlobs);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(out, signArgsList, lineageFilePath, overwrite, dryRun, verbose, skipZipAlign, debug, onlyVerify, ksIsDebug, allowResign, zipAlignPath);
+        int result = Objects.hash(out, signArgsList, lineageFilePath, overwrite, dryRun, verbose, skipZipAlign, zipAlignExternal, debug, onlyVerify, ksIsDebug, allowResign, threads, zipAlignPath, cacheDir, cacheMaxSizeMb, processTimeoutSec, maxDepth, daemon, daemonFile, watchDir, reportFile, outputFormat, verifyIndex, forceVerify,
+                v1SigningEnabled, v2SigningEnabled, v3SigningEnabled, v4SigningEnabled, minSdkVersion, idsigOut, digestThreads, inMemoryMaxSizeMb);
         result = 31 * result + Arrays.hashCode(apkFile);
         result = 31 * result + Arrays.hashCode(checkCertSha256);
+        result = 31 * result + Arrays.hashCode(includeGlobs);
+        result = 31 * result + Arrays.hashCode(excludeGlobs);
         return result;
     }
 
@@ -91,11 +157,34 @@ public class Arg {
                 ", dryRun=" + dryRun +
                 ", verbose=" + verbose +
                 ", skipZipAlign=" + skipZipAlign +
+                ", zipAlignExternal=" + zipAlignExternal +
                 ", debug=" + debug +
                 ", onlyVerify=" + onlyVerify +
                 ", ksIsDebug=" + ksIsDebug +
                 ", allowResign=" + allowResign +
+                ", threads=" + threads +
+                ", digestThreads=" + digestThreads +
                 ", zipAlignPath='" + zipAlignPath + '\'' +
+                ", cacheDir='" + cacheDir + '\'' +
+                ", cacheMaxSizeMb=" + cacheMaxSizeMb +
+                ", inMemoryMaxSizeMb=" + inMemoryMaxSizeMb +
+                ", processTimeoutSec=" + processTimeoutSec +
+                ", maxDepth=" + maxDepth +
+                ", includeGlobs=" + Arrays.toString(includeGlobs) +
+                ", excludeGlobs=" + Arrays.toString(excludeGlobs) +
+                ", daemon=" + daemon +
+                ", daemonFile='" + daemonFile + '\'' +
+                ", watchDir='" + watchDir + '\'' +
+                ", reportFile='" + reportFile + '\'' +
+                ", verifyIndex='" + verifyIndex + '\'' +
+                ", forceVerify=" + forceVerify +
+                ", v1SigningEnabled=" + v1SigningEnabled +
+                ", v2SigningEnabled=" + v2SigningEnabled +
+                ", v3SigningEnabled=" + v3SigningEnabled +
+                ", v4SigningEnabled=" + v4SigningEnabled +
+                ", minSdkVersion=" + minSdkVersion +
+                ", idsigOut='" + idsigOut + '\'' +
+                ", outputFormat=" + outputFormat +
                 ", checkCertSha256=" + Arrays.toString(checkCertSha256) +
                 '}';
     }
@@ -3,6 +3,12 @@ package at.favre.tools.apksigner.ui;
 import at.favre.tools.apksigner.util.CmdUtil;
 import org.apache.commons.cli.*;
 
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
 /**
  * Parses the command line input and converts it to a structured model ({@link Arg}
  */
@@ -12,11 +18,51 @@ public final class CLIParser {
     public static final String ARG_APK_OUT = "o";
     public static final String ARG_VERIFY = "onlyVerify";
     public static final String ARG_SKIP_ZIPALIGN = "skipZipAlign";
+    public static final String ARG_THREADS = "threads";
+    public static final String ARG_DIGEST_THREADS = "digestThreads";
+    public static final String ARG_ZIPALIGN_EXTERNAL = "zipAlignExternal";
+    public static final String ARG_CACHE_DIR = "cacheDir";
+    public static final String ARG_CACHE_MAX_SIZE = "cacheMaxSize";
+    public static final String ARG_IN_MEMORY_MAX_SIZE = "inMemoryMaxSize";
+    public static final String ARG_DAEMON = "daemon";
+    public static final String ARG_DAEMON_FILE = "daemonFile";
+    public static final String ARG_WATCH = "watch";
+    public static final String ARG_REPORT = "report";
+    public static final String ARG_OUTPUT_FORMAT = "outputFormat";
+    public static final String ARG_PROCESS_TIMEOUT = "processTimeout";
+    public static final String ARG_MAX_DEPTH = "maxDepth";
+    public static final String ARG_INCLUDE = "include";
+    public static final String ARG_EXCLUDE = "exclude";
+    public static final String ARG_VERIFY_INDEX = "verifyIndex";
+    public static final String ARG_FORCE_VERIFY = "forceVerify";
+    public static final String ARG_V1 = "v1";
+    public static final String ARG_V2 = "v2";
+    public static final String ARG_V3 = "v3";
+    public static final String ARG_V4 = "v4";
+    public static final String ARG_MIN_SDK = "minSdk";
+    public static final String ARG_IDSIG_OUT = "idsigOut";
+
+    /**
+     * upper bound of --inMemoryMaxSize, the in-memory buffers are limited to 2 GiB
+     */
+    static final long MAX_IN_MEMORY_SIZE_MB = 1024;
 
     private CLIParser() {
     }
 
     public static Arg parse(String[] inputArgs) {
+        return parse(inputArgs, System.out, System.err);
+    }
+
+    /**
+     * Parses given arguments and prints help, version or errors to given streams
+     *
+     * @param inputArgs command line arguments
+     * @param out       used for help and version output
+     * @param err       used for error messages
+     * @return parsed arguments or null if nothing should be executed (help, version or invalid arguments)
+     */
+    public static Arg parse(String[] inputArgs, PrintStream out, PrintStream err) {
         Options options = setupOptions();
         CommandLineParser parser = new DefaultParser();
         Arg argument = new Arg();
@@ -25,12 +71,12 @@ public final class CLIParser {
             CommandLine commandLine = parser.parse(options, inputArgs);
 
             if (commandLine.hasOption("h") || commandLine.hasOption("help")) {
-                printHelp(options);
+                printHelp(options, out);
                 return null;
             }
 
             if (commandLine.hasOption("v") || commandLine.hasOption("version")) {
-                System.out.println("Version: " + CLIParser.class.getPackage().getImplementationVersion());
+                out.println("Version: " + CLIParser.class.getPackage().getImplementationVersion());
                 return null;
             }
 
@@ -58,19 +104,97 @@ public final class CLIParser {
             argument.verbose = commandLine.hasOption("verbose");
             argument.allowResign = commandLine.hasOption("allowResign");
             argument.skipZipAlign = commandLine.hasOption(ARG_SKIP_ZIPALIGN);
+            argument.zipAlignExternal = commandLine.hasOption(ARG_ZIPALIGN_EXTERNAL) || argument.zipAlignPath != null;
 
-            if (argument.apkFile == null || argument.apkFile.length == 0) {
+            if (commandLine.hasOption(ARG_THREADS)) {
+                argument.threads = parseThreadCount(commandLine.getOptionValue(ARG_THREADS));
+            }
+            if (commandLine.hasOption(ARG_DIGEST_THREADS)) {
+                argument.digestThreads = (int) Math.min(Integer.MAX_VALUE, parsePositiveNumber(ARG_DIGEST_THREADS, commandLine.getOptionValue(ARG_DIGEST_THREADS)));
+            }
+
+            argument.daemon = commandLine.hasOption(ARG_DAEMON);
+            argument.daemonFile = commandLine.getOptionValue(ARG_DAEMON_FILE);
+            argument.watchDir = commandLine.getOptionValue(ARG_WATCH);
+            argument.reportFile = commandLine.getOptionValue(ARG_REPORT);
+            argument.verifyIndex = commandLine.getOptionValue(ARG_VERIFY_INDEX);
+            argument.forceVerify = commandLine.hasOption(ARG_FORCE_VERIFY);
+            argument.v1SigningEnabled = parseBoolean(ARG_V1, commandLine.getOptionValue(ARG_V1), argument.v1SigningEnabled);
+            argument.v2SigningEnabled = parseBoolean(ARG_V2, commandLine.getOptionValue(ARG_V2), argument.v2SigningEnabled);
+            argument.v3SigningEnabled = parseBoolean(ARG_V3, commandLine.getOptionValue(ARG_V3), argument.v3SigningEnabled);
+            argument.v4SigningEnabled = parseBoolean(ARG_V4, commandLine.getOptionValue(ARG_V4), argument.v4SigningEnabled);
+            argument.idsigOut = commandLine.getOptionValue(ARG_IDSIG_OUT);
+            if (commandLine.hasOption(ARG_MIN_SDK)) {
+                argument.minSdkVersion = (int) Math.min(Integer.MAX_VALUE, parsePositiveNumber(ARG_MIN_SDK, commandLine.getOptionValue(ARG_MIN_SDK)));
+            }
+            if (commandLine.hasOption(ARG_OUTPUT_FORMAT)) {
+                argument.outputFormat = parseOutputFormat(commandLine.getOptionValue(ARG_OUTPUT_FORMAT));
+            }
+            argument.cacheDir = commandLine.getOptionValue(ARG_CACHE_DIR);
+            if (commandLine.hasOption(ARG_CACHE_MAX_SIZE)) {
+                argument.cacheMaxSizeMb = parsePositiveNumber(ARG_CACHE_MAX_SIZE, commandLine.getOptionValue(ARG_CACHE_MAX_SIZE));
+            }
+            if (commandLine.hasOption(ARG_IN_MEMORY_MAX_SIZE)) {
+                argument.inMemoryMaxSizeMb = parsePositiveNumber(ARG_IN_MEMORY_MAX_SIZE, commandLine.getOptionValue(ARG_IN_MEMORY_MAX_SIZE));
+            }
+            if (commandLine.hasOption(ARG_MAX_DEPTH)) {
+                argument.maxDepth = (int) Math.min(Integer.MAX_VALUE, parsePositiveNumber(ARG_MAX_DEPTH, commandLine.getOptionValue(ARG_MAX_DEPTH)));
+            }
+            argument.includeGlobs = commandLine.getOptionValues(ARG_INCLUDE);
+            argument.excludeGlobs = commandLine.getOptionValues(ARG_EXCLUDE);
+            if (commandLine.hasOption(ARG_PROCESS_TIMEOUT)) {
+                argument.processTimeoutSec = parsePositiveNumber(ARG_PROCESS_TIMEOUT, commandLine.getOptionValue(ARG_PROCESS_TIMEOUT));
+            }
+
+            if (!argument.daemon && argument.watchDir == null && (argument.apkFile == null || argument.apkFile.length == 0)) {
                 throw new IllegalArgumentException("must provide apk file or folder");
             }
 
+            if (argument.watchDir != null && (argument.out == null || argument.overwrite || argument.onlyVerify)) {
+                throw new IllegalArgumentException("--" + ARG_WATCH + " requires an out path and cannot be used with overwrite or verify only");
+            }
+
+            if (argument.watchDir != null && new File(argument.out).getAbsoluteFile().toPath().normalize()
+                    .startsWith(new File(argument.watchDir).getAbsoluteFile().toPath().normalize())) {
+                throw new IllegalArgumentException("out path must not be in the folder of --" + ARG_WATCH + ", signed apks would be signed again");
+            }
+
+            if (argument.verifyIndex != null && !argument.onlyVerify) {
+                throw new IllegalArgumentException("--" + ARG_VERIFY_INDEX + " can only be used with --" + ARG_VERIFY);
+            }
+
+            if (argument.forceVerify && argument.verifyIndex == null) {
+                throw new IllegalArgumentException("--" + ARG_FORCE_VERIFY + " requires --" + ARG_VERIFY_INDEX);
+            }
+
+            if (!argument.v1SigningEnabled && !argument.v2SigningEnabled && !argument.v3SigningEnabled) {
+                throw new IllegalArgumentException("at least one of --" + ARG_V1 + ", --" + ARG_V2 + " and --" + ARG_V3 + " must be enabled");
+            }
+
+            if (argument.v4SigningEnabled && !argument.v2SigningEnabled && !argument.v3SigningEnabled) {
+                throw new IllegalArgumentException("--" + ARG_V4 + " requires --" + ARG_V2 + " or --" + ARG_V3 + " to be enabled");
+            }
+
+            if (argument.idsigOut != null && !argument.v4SigningEnabled) {
+                throw new IllegalArgumentException("--" + ARG_IDSIG_OUT + " requires --" + ARG_V4 + " true");
+            }
+
+            if (argument.inMemoryMaxSizeMb > MAX_IN_MEMORY_SIZE_MB) {
+                throw new IllegalArgumentException("--" + ARG_IN_MEMORY_MAX_SIZE + " must not be larger than " + MAX_IN_MEMORY_SIZE_MB);
+            }
+
+            if (argument.inMemoryMaxSizeMb > 0 && (argument.onlyVerify || argument.zipAlignExternal)) {
+                throw new IllegalArgumentException("--" + ARG_IN_MEMORY_MAX_SIZE + " cannot be used with --" + ARG_VERIFY + " or an external zipalign");
+            }
+
             if (argument.overwrite && argument.out != null) {
                 throw new IllegalArgumentException("either provide out path or overwrite argument, cannot process both");
             }
 
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            err.println(e.getMessage());
 
-            CLIParser.printHelp(options);
+            CLIParser.printHelp(options, out);
 
             argument = null;
         }
@@ -78,13 +202,65 @@ public final class CLIParser {
         return argument;
     }
 
+    private static int parseThreadCount(String value) {
+        try {
+            int threads = Integer.parseInt(value.trim());
+            if (threads < 1) {
+                throw new IllegalArgumentException("--" + ARG_THREADS + " must be at least 1: " + value);
+            }
+            return threads;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + ARG_THREADS + " must be a number: " + value, e);
+        }
+    }
+
+    private static boolean parseBoolean(String argName, String value, boolean defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.trim().equalsIgnoreCase("true")) {
+            return true;
+        } else if (value.trim().equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("--" + argName + " must be 'true' or 'false': " + value);
+    }
+
+    private static Arg.OutputFormat parseOutputFormat(String value) {
+        for (Arg.OutputFormat format : Arg.OutputFormat.values()) {
+            if (format.name().equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("--" + ARG_OUTPUT_FORMAT + " must be one of " + Arrays.toString(Arg.OutputFormat.values()).toLowerCase(Locale.US) + ": " + value);
+    }
+
+    private static long parsePositiveNumber(String argName, String value) {
+        try {
+            long number = Long.parseLong(value.trim());
+            if (number < 1) {
+                throw new IllegalArgumentException("--" + argName + " must be at least 1: " + value);
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + argName + " must be a number: " + value, e);
+        }
+    }
+
     static Options setupOptions() {
         Options options = new Options();
         Option apkPathOpt = Option.builder(ARG_APK_FILE).longOpt("apks").argName("file/folder").hasArgs().desc("Can be a single apk or " +
                 "a folder containing multiple apks. These are used as source for zipalining/signing/verifying. It is also possible to provide " +
-                "multiple locations space seperated (can be mixed file folder): '/apk /apks2 my.apk'. Folder will be checked non-recursively.").build();
+                "multiple locations space seperated (can be mixed file folder): '/apk /apks2 my.apk'. Folders are checked non-recursively unless --" + ARG_MAX_DEPTH + " is set.").build();
+        Option maxDepthOpt = Option.builder().longOpt(ARG_MAX_DEPTH).argName("levels").hasArg().desc("How many folder levels of the --apks " +
+                "folders are scanned, apks are processed while scanning continues. Defaults to 1 (only the folder itself).").build();
+        Option includeOpt = Option.builder().longOpt(ARG_INCLUDE).argName("glob").hasArgs().desc("Only process apks matching one of these globs, " +
+                "folders are always scanned. A glob containing '/' is matched against the apk path relative to the --apks folder " +
+                "(e.g. 'release/**'), otherwise against the file name (e.g. '*-unsigned.apk').").build();
+        Option excludeOpt = Option.builder().longOpt(ARG_EXCLUDE).argName("glob").hasArgs().desc("Skip apks and folders matching one of " +
+                "these globs, same syntax as --" + ARG_INCLUDE + ". Excluded folders are not scanned.").build();
         Option outOpt = Option.builder(ARG_APK_OUT).longOpt("out").argName("path").hasArg().desc("Where the aligned/signed apks will be copied " +
-                "to. Must be a folder. Will create, if it does not exist.").build();
+                "to. Must be a folder. Will create, if it does not exist. Sub folders found with --maxDepth are recreated in it.").build();
         Option lineagePath = Option.builder("l").longOpt("lineage").argName("path").hasArg().desc("The lineage file for apk signer schema v3 if more then 1 signature is used. See here https://bit.ly/2mh6iAC for more info.").build();
 
         Option ksOpt = Option.builder().longOpt("ks").argName("keystore").hasArgs().desc("The keystore file. If this isn't provided, will try" +
@@ -103,8 +279,13 @@ public final class CLIParser {
         Option ksAliasOpt = Option.builder().longOpt("ksAlias").argName("alias").hasArgs().desc("The alias of the used key in the keystore. Must be" +
                 " provided if --ks is provided. It is possible to pass one or multiple aliases for multiple keystore configs. The syntax for multiple" +
                 " params is '<index>" + MultiKeystoreParser.sep + "<alias>' for example: '1" + MultiKeystoreParser.sep + "my-alias'. Must match the parameters of --ks.").build();
-        Option zipAlignPathOpt = Option.builder().longOpt("zipAlignPath").argName("path").hasArg().desc("Pass your own zipalign executable. If this " +
-                "is omitted the built-in version is used (available for win, mac and linux)").build();
+        Option zipAlignPathOpt = Option.builder().longOpt("zipAlignPath").argName("path").hasArg().desc("Pass your own zipalign executable. Implies " +
+                "--" + ARG_ZIPALIGN_EXTERNAL + ".").build();
+        Option zipAlignExternalOpt = Option.builder().longOpt(ARG_ZIPALIGN_EXTERNAL).hasArg(false).desc("Use an external zipalign executable instead of " +
+                "the in-process java implementation. The executable is searched in --zipAlignPath, then PATH and if not found the built-in " +
+                "version is used (available for win, mac and linux).").build();
+        Option processTimeoutOpt = Option.builder().longOpt(ARG_PROCESS_TIMEOUT).argName("seconds").hasArg().desc("Max run time of a single " +
+                "external zipalign call, a process still running after that is killed and the apk fails. Defaults to 600.").build();
 
         Option checkSh256Opt = Option.builder().longOpt("verifySha256").argName("cert-sha256").hasArgs().desc("Provide one or multiple sha256 in " +
                 "string hex representation (ignoring case) to let the tool check it against hashes of the APK's certificate and use it in the verify" +
@@ -112,6 +293,22 @@ public final class CLIParser {
                 " exact these hashes (providing only one hash, even if it matches one cert, will fail).").build();
 
         Option verifyOnlyOpt = Option.builder("y").longOpt(ARG_VERIFY).hasArg(false).desc("If this is passed, the signature and alignment is only verified.").build();
+        Option verifyIndexOpt = Option.builder().longOpt(ARG_VERIFY_INDEX).argName("file").hasArg().desc("Keeps the signature verification " +
+                "results of --" + ARG_VERIFY + " in this file. An apk with the same path, size, modification date and sha256 as in the index is not " +
+                "verified again but reported from the index, so repeated audits only verify new and changed apks.").build();
+        Option forceVerifyOpt = Option.builder().longOpt(ARG_FORCE_VERIFY).hasArg(false).desc("Ignores the entries of --" + ARG_VERIFY_INDEX +
+                ", verifies every apk and updates the index.").build();
+        Option v1Opt = Option.builder().longOpt(ARG_V1).argName("true|false").hasArg().desc("Enables or disables v1 (JAR) signing. It digests " +
+                "every entry, so disabling it speeds up signing of apks with many entries; it is only needed for devices below API 24 " +
+                "(use with --" + ARG_MIN_SDK + " 24). Defaults to true.").build();
+        Option v2Opt = Option.builder().longOpt(ARG_V2).argName("true|false").hasArg().desc("Enables or disables v2 signing. Defaults to true.").build();
+        Option v3Opt = Option.builder().longOpt(ARG_V3).argName("true|false").hasArg().desc("Enables or disables v3 signing. Defaults to true.").build();
+        Option v4Opt = Option.builder().longOpt(ARG_V4).argName("true|false").hasArg().desc("Enables or disables v4 signing (.idsig file next " +
+                "to the apk), needs v2 or v3. It hashes the whole apk a second time, so it is only worth it for incremental installs. Defaults to false.").build();
+        Option idsigOutOpt = Option.builder().longOpt(ARG_IDSIG_OUT).argName("path").hasArg().desc("Writes the v4 signatures (.idsig) to " +
+                "given folder instead of next to the signed apks. Requires --" + ARG_V4 + " true.").build();
+        Option minSdkOpt = Option.builder().longOpt(ARG_MIN_SDK).argName("api level").hasArg().desc("Lowest API level the signatures have to " +
+                "support, used for signing and verifying. Defaults to the minSdkVersion of the apk's manifest.").build();
         Option dryRunOpt = Option.builder().longOpt("dryRun").hasArg(false).desc("Check what apks would be processed without actually doing anything.").build();
         Option skipZipOpt = Option.builder().longOpt(ARG_SKIP_ZIPALIGN).hasArg(false).desc("Skips zipAlign process. Also affects verify.").build();
         Option overwriteOpt = Option.builder().longOpt("overwrite").hasArg(false).desc("Will overwrite/delete the apks in-place").build();
@@ -120,25 +317,66 @@ public final class CLIParser {
         Option resignOpt = Option.builder().longOpt("allowResign").hasArg(false).desc("If this flag is set, the tool will not show error on signed apks, but will " +
                 "sign them with the new certificate (therefore removing the old one).").build();
 
+        Option threadsOpt = Option.builder().longOpt(ARG_THREADS).argName("count").hasArg().desc("Process multiple apks in parallel with the given " +
+                "count of worker threads. Each apk runs the full zipalign/sign/verify chain on one thread and its log output is printed in one block. " +
+                "Defaults to 1 (sequential).").build();
+        Option digestThreadsOpt = Option.builder().longOpt(ARG_DIGEST_THREADS).argName("count").hasArg().desc("Max threads computing the v2/v3 " +
+                "chunk digests of a single apk. The helper threads are shared by all --" + ARG_THREADS + " workers, so one large apk gets all " +
+                "of them while parallel apks do not oversubscribe the cores. Defaults to the number of cores minus --" + ARG_THREADS + " plus 1.").build();
+
+        Option cacheDirOpt = Option.builder().longOpt(ARG_CACHE_DIR).argName("path").hasArg().desc("Enables the signing cache in given directory. " +
+                "If an apk with the same content was already signed with the same certificates, lineage and options, the cached signed apk is " +
+                "copied to the output instead of aligning and signing again. The directory can be shared between concurrent runs.").build();
+        Option cacheMaxSizeOpt = Option.builder().longOpt(ARG_CACHE_MAX_SIZE).argName("MiB").hasArg().desc("Max size of the signing cache in MiB, " +
+                "least recently used entries are removed first. Defaults to 2048.").build();
+
+        Option inMemoryMaxSizeOpt = Option.builder().longOpt(ARG_IN_MEMORY_MAX_SIZE).argName("MiB").hasArg().desc("Apks up to this size " +
+                "are read once and aligned, signed and verified in memory, only the signed apk (and .idsig) is written. Needs about twice " +
+                "the apk size of heap per --" + ARG_THREADS + " worker. Max " + MAX_IN_MEMORY_SIZE_MB + ", disabled by default.").build();
+
+        Option daemonOpt = Option.builder().longOpt(ARG_DAEMON).hasArg(false).desc("Starts a long-running daemon instead of processing apks. " +
+                "Jobs with the same arguments as this command line are accepted over a local TCP socket (loopback only) so JVM startup and " +
+                "keystore loading is only paid once. Port and access token are written to --" + ARG_DAEMON_FILE + ".").build();
+        Option daemonFileOpt = Option.builder().longOpt(ARG_DAEMON_FILE).argName("path").hasArg().desc("Where the daemon writes its port and access token, " +
+                "only readable by the current user. Defaults to 'user_home/.uber-apk-signer/daemon'.").build();
+
+        Option watchOpt = Option.builder().longOpt(ARG_WATCH).argName("folder").hasArg().desc("Watches the folder and continuously signs every apk " +
+                "that is added or changed into --out, until stopped. An apk is processed once its size did not change for a second.").build();
+
+        Option reportOpt = Option.builder().longOpt(ARG_REPORT).argName("file").hasArg().desc("Writes a JSON report with wall time and bytes " +
+                "of every phase (pre-check, checksum, align, sign, v4, verify) per apk and percentiles over all apks to given file.").build();
+
+        Option outputFormatOpt = Option.builder().longOpt(ARG_OUTPUT_FORMAT).argName("text|ndjson").hasArg().desc("With 'ndjson' a JSON object " +
+                "with paths, checksums, verified schemes, certificates and phase timings is printed to stdout as soon as an apk is done, one per line; " +
+                "the human readable output goes to stderr. Defaults to 'text'.").build();
+
         Option help = Option.builder("h").longOpt("help").desc("Prints help docs.").build();
         Option version = Option.builder("v").longOpt("version").desc("Prints current version.").build();
 
         OptionGroup mainArgs = new OptionGroup();
-        mainArgs.addOption(apkPathOpt).addOption(help).addOption(version);
+        mainArgs.addOption(apkPathOpt).addOption(help).addOption(version).addOption(daemonOpt).addOption(watchOpt);
         mainArgs.setRequired(true);
 
         options.addOptionGroup(mainArgs);
         options.addOption(ksOpt).addOption(ksPassOpt).addOption(ksKeyPassOpt).addOption(ksAliasOpt).addOption(verifyOnlyOpt)
                 .addOption(dryRunOpt).addOption(skipZipOpt).addOption(overwriteOpt).addOption(verboseOpt).addOption(debugOpt)
-                .addOption(zipAlignPathOpt).addOption(outOpt).addOption(lineagePath).addOption(ksDebugOpt).addOption(resignOpt).addOption(checkSh256Opt);
+                .addOption(zipAlignPathOpt).addOption(outOpt).addOption(lineagePath).addOption(ksDebugOpt).addOption(resignOpt).addOption(checkSh256Opt)
+                .addOption(threadsOpt).addOption(digestThreadsOpt).addOption(zipAlignExternalOpt).addOption(processTimeoutOpt).addOption(cacheDirOpt).addOption(cacheMaxSizeOpt)
+                .addOption(inMemoryMaxSizeOpt)
+                .addOption(daemonFileOpt).addOption(reportOpt).addOption(outputFormatOpt).addOption(maxDepthOpt).addOption(includeOpt)
+                .addOption(excludeOpt).addOption(verifyIndexOpt).addOption(forceVerifyOpt).addOption(v1Opt)
+                .addOption(v2Opt).addOption(v3Opt).addOption(v4Opt).addOption(idsigOutOpt).addOption(minSdkOpt);
 
         return options;
     }
 
-    private static void printHelp(Options options) {
+    private static void printHelp(Options options, PrintStream out) {
         HelpFormatter help = new HelpFormatter();
         help.setWidth(110);
         help.setLeftPadding(4);
-        help.printHelp("uber-apk-signer", "Version: " + CmdUtil.jarVersion(), options, "", true);
+        PrintWriter writer = new PrintWriter(out);
+        help.printHelp(writer, help.getWidth(), "uber-apk-signer", "Version: " + CmdUtil.jarVersion(), options,
+                help.getLeftPadding(), help.getDescPadding(), "", true);
+        writer.flush();
     }
 }
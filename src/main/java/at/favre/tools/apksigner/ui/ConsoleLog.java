@@ -0,0 +1,111 @@
+package at.favre.tools.apksigner.ui;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Target of the human readable console output. Can either print directly or buffer the messages so that the
+ * output of APKs processed concurrently is not interleaved and can be flushed as one block.
+ * <p>
+ * Machine readable results are written with {@link #logResult(String)}, which is never buffered.
+ */
+public class ConsoleLog {
+    private final PrintStream out;
+    private final PrintStream err;
+    private final PrintStream results;
+    private final List<Message> buffer;
+
+    /**
+     * Create a log printing directly to given streams. The streams are captured on creation, so swapping
+     * {@link System#out} afterwards does not affect this instance.
+     *
+     * @param out used for normal messages
+     * @param err used for error messages
+     */
+    public ConsoleLog(PrintStream out, PrintStream err) {
+        this(out, err, out, false);
+    }
+
+    private ConsoleLog(PrintStream out, PrintStream err, PrintStream results, boolean buffered) {
+        this.out = out;
+        this.err = err;
+        this.results = results;
+        this.buffer = buffered ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Creates a new instance that prints all human readable messages to the error stream, so the out stream only
+     * carries the machine readable results of {@link #logResult(String)}.
+     *
+     * @return new log
+     */
+    public ConsoleLog humanOutputToErr() {
+        return new ConsoleLog(err, err, results, buffer != null);
+    }
+
+    /**
+     * Creates a new instance that buffers all messages until {@link #flush()} is called. The buffered messages
+     * are then printed to the streams of this instance.
+     *
+     * @return new buffered log
+     */
+    public ConsoleLog buffered() {
+        return new ConsoleLog(out, err, results, true);
+    }
+
+    public void log(String msg) {
+        print(msg, false);
+    }
+
+    public void logErr(String msg) {
+        print(msg, true);
+    }
+
+    /**
+     * Prints a machine readable line right away, also if this log is buffered, so results can be consumed while
+     * other APKs are still processed.
+     *
+     * @param line e.g. a JSON object without line breaks
+     */
+    public void logResult(String line) {
+        synchronized (ConsoleLog.class) {
+            results.println(line);
+            results.flush();
+        }
+    }
+
+    /**
+     * Prints all buffered messages in the order they were added. Has no effect if not buffered.
+     */
+    public void flush() {
+        if (buffer == null) {
+            return;
+        }
+
+        synchronized (ConsoleLog.class) {
+            for (Message message : buffer) {
+                (message.error ? err : out).println(message.msg);
+            }
+        }
+        buffer.clear();
+    }
+
+    private void print(String msg, boolean error) {
+        if (buffer != null) {
+            buffer.add(new Message(msg, error));
+        } else {
+            (error ? err : out).println(msg);
+        }
+    }
+
+    private static final class Message {
+        final String msg;
+        final boolean error;
+
+        Message(String msg, boolean error) {
+            this.msg = msg;
+            this.error = error;
+        }
+    }
+}
@@ -4,6 +4,12 @@ import at.favre.tools.apksigner.util.FileUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -44,6 +50,65 @@ public class FileArgParser {
         return resultList;
     }
 
+    /**
+     * Lazily discovers files in the given files and folders. Folders are listed one at a time while the returned
+     * iterator is consumed, so the first file is available before the whole tree is scanned. Entries of a folder are
+     * returned in name order, sub folders are descended into in place; symlinked sub folders are not followed.
+     * Files reachable through multiple arguments or links are only returned once (compared by canonical path).
+     * <p>
+     * Globs are matched against the path relative to the given folder, using '/' as separator (e.g. 'release/**'),
+     * a glob without '/' is matched against the file name only (e.g. '*-unsigned.apk'). A folder matching an exclude
+     * glob is not scanned at all.
+     *
+     * @param files           files or folders, all must exist
+     * @param extensionFilter only files with this extension are returned
+     * @param maxDepth        how many folder levels are scanned, 1 for only the direct children of given folders
+     * @param includeGlobs    if not empty, a file in a folder must match at least one of these; files passed directly are not filtered
+     * @param excludeGlobs    files and folders matching any of these are skipped
+     * @return lazy iterator, throws {@link IllegalStateException} if a folder cannot be listed
+     */
+    public Iterator<File> discover(String[] files, String extensionFilter, int maxDepth, List<String> includeGlobs, List<String> excludeGlobs) {
+        if (files == null) {
+            throw new IllegalArgumentException("input files must not be null");
+        }
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("max depth must be at least 1: " + maxDepth);
+        }
+
+        List<File> roots = new ArrayList<>(files.length);
+        for (String file : files) {
+            File root = new File(file);
+            if (!root.isDirectory() && !isCorrectFile(root, extensionFilter)) {
+                throw new IllegalArgumentException("provided apk path or file '" + file + "' does not exist");
+            }
+            roots.add(root);
+        }
+        return new DiscoveryIterator(roots, extensionFilter, maxDepth, toMatchers(includeGlobs), toMatchers(excludeGlobs));
+    }
+
+    /**
+     * The folder of a discovered file relative to the given folder it was found in, used to recreate the folder
+     * structure in the out folder so same named files in different sub folders do not overwrite each other.
+     *
+     * @param file  one of the files returned by {@link #discover(String[], String, int, List, List)}
+     * @param files the same files or folders discover was called with
+     * @return relative folder path, empty if the file was passed directly or is a direct child of a given folder
+     */
+    public static String relativeFolder(File file, String[] files) {
+        Path parent = file.getAbsoluteFile().toPath().normalize().getParent();
+        for (String root : files) {
+            File rootFile = new File(root);
+            if (!rootFile.isDirectory()) {
+                continue;
+            }
+            Path rootPath = rootFile.getAbsoluteFile().toPath().normalize();
+            if (parent != null && parent.startsWith(rootPath)) {
+                return rootPath.relativize(parent).toString();
+            }
+        }
+        return "";
+    }
+
     public static List<String> getDirSummary(List<File> files) {
         Set<File> parents = new HashSet<>();
         for (File file : files) {
@@ -68,6 +133,133 @@ public class FileArgParser {
         }).sorted().collect(Collectors.toList());
     }
 
+    private static List<Glob> toMatchers(List<String> globs) {
+        List<Glob> matchers = new ArrayList<>();
+        if (globs != null) {
+            for (String glob : globs) {
+                matchers.add(new Glob(glob));
+            }
+        }
+        return matchers;
+    }
+
+    private static final class Glob {
+        private final PathMatcher matcher;
+        private final boolean nameOnly;
+
+        Glob(String glob) {
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            this.nameOnly = !glob.contains("/");
+        }
+
+        boolean matches(Path relativePath) {
+            return matcher.matches(nameOnly ? relativePath.getFileName() : relativePath);
+        }
+
+        static boolean matchesAny(List<Glob> globs, Path relativePath) {
+            for (Glob glob : globs) {
+                if (glob.matches(relativePath)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Depth first walk keeping only the not yet visited entries of the folders on the current path in memory
+     */
+    private static final class DiscoveryIterator implements Iterator<File> {
+        private final Iterator<File> roots;
+        private final String extensionFilter;
+        private final int maxDepth;
+        private final List<Glob> includes;
+        private final List<Glob> excludes;
+        private final Set<String> seenCanonicalPaths = new HashSet<>();
+        private final Deque<Iterator<Path>> openDirs = new ArrayDeque<>();
+        private Path currentRoot;
+        private File next;
+
+        DiscoveryIterator(List<File> roots, String extensionFilter, int maxDepth, List<Glob> includes, List<Glob> excludes) {
+            this.roots = roots.iterator();
+            this.extensionFilter = extensionFilter;
+            this.maxDepth = maxDepth;
+            this.includes = includes;
+            this.excludes = excludes;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (!openDirs.isEmpty()) {
+                    Iterator<Path> entries = openDirs.peek();
+                    if (!entries.hasNext()) {
+                        openDirs.pop();
+                        continue;
+                    }
+                    Path entry = entries.next();
+                    Path relativePath = currentRoot.relativize(entry);
+
+                    if (Glob.matchesAny(excludes, relativePath)) {
+                        continue;
+                    }
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        if (openDirs.size() < maxDepth) {
+                            openDirs.push(listSorted(entry));
+                        }
+                    } else if (isCorrectFile(entry.toFile(), extensionFilter)
+                            && (includes.isEmpty() || Glob.matchesAny(includes, relativePath))) {
+                        offer(entry.toFile());
+                    }
+                } else if (roots.hasNext()) {
+                    File root = roots.next();
+                    if (root.isDirectory()) {
+                        currentRoot = root.toPath();
+                        openDirs.push(listSorted(currentRoot));
+                    } else {
+                        offer(root);
+                    }
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            File result = next;
+            next = null;
+            return result;
+        }
+
+        private void offer(File file) {
+            try {
+                if (seenCanonicalPaths.add(file.getCanonicalPath())) {
+                    next = file;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("could not resolve " + file, e);
+            }
+        }
+
+        private static Iterator<Path> listSorted(Path dir) {
+            List<Path> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    entries.add(entry);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("could not list folder " + dir, e);
+            }
+            Collections.sort(entries);
+            return entries.iterator();
+        }
+    }
+
     private static boolean isCorrectFile(File f, String extensionFilter) {
         if (f != null && f.exists() && f.isFile()) {
             return FileUtil.getFileExtension(f).equalsIgnoreCase(extensionFilter);
@@ -1,36 +1,123 @@
 package at.favre.tools.apksigner.util;
 
 import java.io.BufferedReader;
-import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public final class CmdUtil {
 
     private CmdUtil() {
     }
 
+    /**
+     * Max count of output lines kept per command by default
+     */
+    public static final int DEFAULT_MAX_OUTPUT_LINES = 200;
+    /**
+     * Timeout value to wait indefinitely for a command
+     */
+    public static final long NO_TIMEOUT = 0;
+    private static final long OUTPUT_DRAIN_TIMEOUT_MS = 5000;
+
     public static Result runCmd(String[] cmdArray) {
-        StringBuilder logStringBuilder = new StringBuilder();
+        return runCmd(cmdArray, DEFAULT_MAX_OUTPUT_LINES, NO_TIMEOUT);
+    }
+
+    /**
+     * Runs given command and captures its merged stdout and stderr. The output is read while the process runs, but
+     * only the last lines are kept, so a very chatty process does not fill the heap.
+     *
+     * @param cmdArray       command and its arguments
+     * @param maxOutputLines how many of the last non-empty output lines are kept, 0 to discard the output
+     * @param timeoutMs      the process is killed if it did not finish after this many milliseconds, {@link #NO_TIMEOUT} to wait forever
+     * @return result, if the process was killed the exception is a {@link TimeoutException}
+     */
+    public static Result runCmd(String[] cmdArray, int maxOutputLines, long timeoutMs) {
+        OutputTail outputTail = new OutputTail(maxOutputLines);
         Exception exception = null;
         int exitValue = -1;
         try {
             ProcessBuilder pb = new ProcessBuilder(cmdArray);
             pb.redirectErrorStream(true);
             Process process = pb.start();
-            try (BufferedReader inStreamReader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()))) {
+
+            Thread reader = new Thread(() -> outputTail.readFrom(process.getInputStream()), "cmd-output-reader");
+            reader.setDaemon(true);
+            reader.start();
+
+            if (timeoutMs > 0 && !process.waitFor(timeoutMs, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                process.waitFor(OUTPUT_DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                exception = new TimeoutException("process did not finish after " + timeoutMs + " ms and was killed");
+            } else {
+                process.waitFor();
+                exitValue = process.exitValue();
+            }
+            // a grandchild might keep the pipe open, do not wait for it forever
+            reader.join(OUTPUT_DRAIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exception = e;
+        } catch (Exception e) {
+            exception = e;
+        }
+        return new Result(outputTail.toString(), exception, cmdArray, exitValue);
+    }
+
+    /**
+     * Ring buffer of the last output lines
+     */
+    private static final class OutputTail {
+        private final int maxLines;
+        private final Deque<String> lines = new ArrayDeque<>();
+        private long droppedLines;
+
+        OutputTail(int maxLines) {
+            this.maxLines = maxLines;
+        }
+
+        void readFrom(InputStream in) {
+            try (BufferedReader inStreamReader = new BufferedReader(new InputStreamReader(in))) {
                 String s;
                 while ((s = inStreamReader.readLine()) != null) {
-                    if (!s.isEmpty()) logStringBuilder.append(s).append("\n");
+                    if (!s.isEmpty()) {
+                        add(s);
+                    }
                 }
+            } catch (IOException e) {
+                // process was killed or stream closed, keep what was read so far
             }
-            process.waitFor();
-            exitValue = process.exitValue();
-        } catch (Exception e) {
-            exception = e;
         }
-        return new Result(logStringBuilder.toString(), exception, cmdArray, exitValue);
+
+        private synchronized void add(String line) {
+            if (maxLines <= 0) {
+                droppedLines++;
+                return;
+            }
+            if (lines.size() == maxLines) {
+                lines.removeFirst();
+                droppedLines++;
+            }
+            lines.addLast(line);
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder();
+            if (droppedLines > 0) {
+                sb.append("[").append(droppedLines).append(" lines omitted]\n");
+            }
+            for (String line : lines) {
+                sb.append(line).append("\n");
+            }
+            return sb.toString();
+        }
     }
 
     public static boolean canRunCmd(String[] cmd) {
@@ -44,31 +131,6 @@ public final class CmdUtil {
         return result;
     }
 
-    public static File checkAndGetFromPATHEnvVar(final String matchesExecutable) {
-        String separator = ":";
-        if (getOsType() == OS.WIN) {
-            separator = ";";
-        }
-
-        String[] pathParts = System.getenv("PATH").split(separator);
-        for (String pathPart : pathParts) {
-            File pathFile = new File(pathPart);
-
-            if (pathFile.isFile() && pathFile.getName().toLowerCase().contains(matchesExecutable)) {
-                return pathFile;
-            } else if (pathFile.isDirectory()) {
-                File[] matchedFiles = pathFile.listFiles(pathname -> pathname.getName().toLowerCase().contains(matchesExecutable));
-
-                for (File matchedFile : matchedFiles) {
-                    if (CmdUtil.canRunCmd(new String[]{matchedFile.getAbsolutePath()})) {
-                        return matchedFile;
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
     public static OS getOsType() {
         String osName = System.getProperty("os.name").toLowerCase();
 
@@ -0,0 +1,217 @@
+package at.favre.tools.apksigner.util;
+
+import at.favre.lib.bytes.Bytes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hashes a file with one or more message digests in a single pass. The file is read through a {@link FileChannel}
+ * with a large buffer, every chunk is fed to all requested digests before the next one is read.
+ * <p>
+ * A mapped buffer is deliberately not used: on Windows a mapped file stays locked until the buffer is garbage
+ * collected, which would break overwriting or deleting the apk right after it was hashed.
+ */
+public final class FileDigest {
+    public static final String SHA1 = "SHA-1";
+    public static final String SHA256 = "SHA-256";
+    public static final String SHA512 = "SHA-512";
+
+    static final int BUFFER_SIZE = 1024 * 1024;
+
+    public final File file;
+    public final long size;
+    public final long lastModified;
+    private final Map<String, String> digests;
+
+    private FileDigest(File file, long size, long lastModified, Map<String, String> digests) {
+        this.file = file;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.digests = Collections.unmodifiableMap(digests);
+    }
+
+    /**
+     * Reads given file once and computes all given digests
+     *
+     * @param file       to hash
+     * @param algorithms message digest names, e.g. {@link #SHA256}; must not be empty
+     * @return digests of the file
+     * @throws IllegalStateException if file could not be read or an algorithm is not supported
+     */
+    public static FileDigest create(File file, String... algorithms) {
+        if (algorithms.length == 0) {
+            throw new IllegalArgumentException("at least one digest algorithm is required");
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long lastModified = file.lastModified();
+            MessageDigest[] messageDigests = new MessageDigest[algorithms.length];
+            for (int i = 0; i < algorithms.length; i++) {
+                messageDigests[i] = MessageDigest.getInstance(algorithms[i]);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(BUFFER_SIZE, channel.size())));
+            long size = 0;
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                for (MessageDigest messageDigest : messageDigests) {
+                    messageDigest.update(buffer.array(), 0, buffer.position());
+                }
+                size += read;
+                buffer.clear();
+            }
+
+            Map<String, String> digests = new LinkedHashMap<>();
+            for (int i = 0; i < algorithms.length; i++) {
+                digests.put(algorithms[i], Bytes.wrap(messageDigests[i].digest()).encodeHex());
+            }
+            return new FileDigest(file, size, lastModified, digests);
+        } catch (Exception e) {
+            throw new IllegalStateException("could not create checksum for " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Computes all given digests of content that is already in memory, e.g. because it was just read from or written to
+     * given file. Size and modification date are taken from the file, so the result can be used for cache lookups.
+     *
+     * @param file       the content belongs to
+     * @param content    current content of the file, the buffer position is not changed
+     * @param algorithms message digest names, e.g. {@link #SHA256}; must not be empty
+     * @return digests of the content
+     * @throws IllegalStateException if an algorithm is not supported
+     */
+    public static FileDigest create(File file, ByteBuffer content, String... algorithms) {
+        if (algorithms.length == 0) {
+            throw new IllegalArgumentException("at least one digest algorithm is required");
+        }
+
+        try {
+            long lastModified = file.lastModified();
+            Map<String, String> digests = new LinkedHashMap<>();
+            for (String algorithm : algorithms) {
+                MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
+                messageDigest.update(content.duplicate());
+                digests.put(algorithm, Bytes.wrap(messageDigest.digest()).encodeHex());
+            }
+            return new FileDigest(file, content.remaining(), lastModified, digests);
+        } catch (Exception e) {
+            throw new IllegalStateException("could not create checksum for " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Hex encoded digest for given algorithm
+     *
+     * @param algorithm used when creating this instance
+     * @return lower case hex digest
+     * @throws IllegalArgumentException if digest was not computed for this algorithm
+     */
+    public String get(String algorithm) {
+        String digest = digests.get(algorithm);
+        if (digest == null) {
+            throw new IllegalArgumentException("digest " + algorithm + " was not computed for " + file);
+        }
+        return digest;
+    }
+
+    public String sha256() {
+        return get(SHA256);
+    }
+
+    boolean hasAll(String... algorithms) {
+        for (String algorithm : algorithms) {
+            if (!digests.containsKey(algorithm)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the file still has the same size and modification date as when it was hashed
+     *
+     * @param file to check, usually the same as {@link #file}
+     * @return true if the digests can be assumed to be still valid
+     */
+    public boolean isUpToDate(File file) {
+        return file.isFile() && file.length() == size && file.lastModified() == lastModified;
+    }
+
+    @Override
+    public String toString() {
+        return "FileDigest{" +
+                "file=" + file +
+                ", size=" + size +
+                ", digests=" + digests +
+                '}';
+    }
+
+    /**
+     * Thread safe per-run cache so every phase that needs the digest of the same, unchanged file does not
+     * read it again. Entries are keyed by canonical path and invalidated when size or modification date changes.
+     */
+    public static final class Cache {
+        private final String[] algorithms;
+        private final Map<String, FileDigest> cache = new ConcurrentHashMap<>();
+
+        /**
+         * Create new cache
+         *
+         * @param algorithms computed for every file, e.g. {@link #SHA256}
+         */
+        public Cache(String... algorithms) {
+            if (algorithms.length == 0) {
+                throw new IllegalArgumentException("at least one digest algorithm is required");
+            }
+            this.algorithms = algorithms.clone();
+        }
+
+        /**
+         * Returns the cached digests or hashes the file if it was not seen yet or changed since.
+         *
+         * @param file to hash
+         * @return digests of the current content
+         */
+        public FileDigest get(File file) {
+            String key = canonicalPath(file);
+            FileDigest digest = cache.get(key);
+            if (digest == null || !digest.isUpToDate(file) || !digest.hasAll(algorithms)) {
+                digest = create(file, algorithms);
+                cache.put(key, digest);
+            }
+            return digest;
+        }
+
+        /**
+         * Hashes content already in memory and replaces the cached digests of the file with it
+         *
+         * @param file    the content belongs to
+         * @param content current content of the file
+         * @return digests of the content
+         * @see FileDigest#create(File, ByteBuffer, String...)
+         */
+        public FileDigest get(File file, ByteBuffer content) {
+            FileDigest digest = create(file, content, algorithms);
+            cache.put(canonicalPath(file), digest);
+            return digest;
+        }
+
+        private static String canonicalPath(File file) {
+            try {
+                return file.getCanonicalPath();
+            } catch (IOException e) {
+                return file.getAbsolutePath();
+            }
+        }
+    }
+}
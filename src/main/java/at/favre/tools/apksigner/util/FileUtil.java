@@ -1,16 +1,12 @@
 package at.favre.tools.apksigner.util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.math.BigInteger;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.MessageDigest;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Locale;
@@ -37,24 +33,16 @@ public final class FileUtil {
     }
 
     public static String createChecksum(File file, String shaAlgo) {
-        try {
-            InputStream fis = new FileInputStream(file);
-            byte[] buffer = new byte[1024];
-            MessageDigest complete = MessageDigest.getInstance(shaAlgo);
-            int numRead;
-
-            do {
-                numRead = fis.read(buffer);
-                if (numRead > 0) {
-                    complete.update(buffer, 0, numRead);
-                }
-            } while (numRead != -1);
+        return FileDigest.create(file, shaAlgo).get(shaAlgo);
+    }
 
-            fis.close();
-            return new BigInteger(1, complete.digest()).toString(16).toLowerCase();
-        } catch (Exception e) {
-            throw new IllegalStateException("could not create checksum for " + file + " and algo " + shaAlgo + ": " + e.getMessage(), e);
-        }
+    /**
+     * @return <code>$XDG_CACHE_HOME/uber-apk-signer</code> or <code>user_home/.cache/uber-apk-signer</code>, may not exist yet
+     */
+    public static File getUserCacheDir() {
+        String xdgCacheHome = System.getenv("XDG_CACHE_HOME");
+        File base = xdgCacheHome != null && !xdgCacheHome.isEmpty() ? new File(xdgCacheHome) : new File(System.getProperty("user.home"), ".cache");
+        return new File(base, "uber-apk-signer");
     }
 
     public static void removeRecursive(Path path) {
@@ -0,0 +1,158 @@
+package at.favre.tools.apksigner.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Minimal streaming JSON builder for the machine readable outputs of the tool, so no JSON library has to be
+ * bundled. Values and names are written in call order; the caller is responsible for a well-formed structure.
+ */
+public final class JsonWriter {
+    private final StringBuilder sb = new StringBuilder();
+    private final boolean pretty;
+    private final Deque<Boolean> firstInContainer = new ArrayDeque<>();
+    private boolean afterName;
+
+    /**
+     * @param pretty if true, every element is written on its own indented line, otherwise everything is written
+     *               on a single line (e.g. for newline delimited JSON)
+     */
+    public JsonWriter(boolean pretty) {
+        this.pretty = pretty;
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        sb.append('{');
+        firstInContainer.push(true);
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        return end('}');
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        sb.append('[');
+        firstInContainer.push(true);
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        return end(']');
+    }
+
+    public JsonWriter name(String name) {
+        beforeValue();
+        sb.append(quote(name)).append(pretty ? ": " : ":");
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        beforeValue();
+        sb.append(value == null ? "null" : quote(value));
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        sb.append(value);
+        return this;
+    }
+
+    /**
+     * Writes the number with at most 3 fraction digits; NaN and infinity are written as null
+     */
+    public JsonWriter value(double value) {
+        beforeValue();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            sb.append("null");
+        } else {
+            sb.append(String.format(Locale.US, "%.3f", value).replaceAll("\\.?0+$", ""));
+        }
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        sb.append(value);
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        beforeValue();
+        sb.append("null");
+        return this;
+    }
+
+    private JsonWriter end(char bracket) {
+        boolean empty = firstInContainer.pop();
+        if (!empty) {
+            newLine();
+        }
+        sb.append(bracket);
+        return this;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!firstInContainer.isEmpty()) {
+            if (!firstInContainer.pop()) {
+                sb.append(',');
+            }
+            firstInContainer.push(false);
+            newLine();
+        }
+    }
+
+    private void newLine() {
+        if (pretty) {
+            sb.append('\n');
+            for (int i = 0; i < firstInContainer.size(); i++) {
+                sb.append("  ");
+            }
+        }
+    }
+
+    static String quote(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package at.favre.tools.apksigner.util;
+
+import at.favre.lib.bytes.Bytes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Finds an executable in the <code>PATH</code> environment variable by its exact name (plus the <code>PATHEXT</code>
+ * extensions on Windows). Executability is checked through the file attributes, no candidate is started.
+ * <p>
+ * Results, including "not found", are memoized in a small properties file. The key contains the PATH value and the
+ * modification time of every PATH folder, which changes whenever a file is added, removed or renamed in it, so
+ * a stale entry is never used; a hit is still checked to exist and be executable.
+ */
+public final class PathExecutableResolver {
+    private static final int MAX_CACHE_ENTRIES = 64;
+    private static final String NOT_FOUND = "";
+
+    private final File cacheFile;
+
+    /**
+     * @param cacheFile properties file to memoize results in or null to disable memoization
+     */
+    public PathExecutableResolver(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * @param executableName e.g. "zipalign", without extension
+     * @return first match in PATH order or null if not found
+     */
+    public File resolve(String executableName) {
+        return resolve(executableName, System.getenv("PATH"), CmdUtil.getOsType() == CmdUtil.OS.WIN);
+    }
+
+    File resolve(String executableName, String pathEnv, boolean windows) {
+        if (pathEnv == null || pathEnv.isEmpty()) {
+            return null;
+        }
+
+        List<File> dirs = new ArrayList<>();
+        StringBuilder keySource = new StringBuilder(executableName).append('\u0000').append(pathEnv);
+        for (String pathPart : pathEnv.split(windows ? ";" : File.pathSeparator)) {
+            if (pathPart.isEmpty()) {
+                continue;
+            }
+            File dir = new File(pathPart);
+            dirs.add(dir);
+            keySource.append('\u0000').append(dir.lastModified());
+        }
+        String key = Bytes.from(keySource, StandardCharsets.UTF_8).hashSha256().encodeHex();
+
+        Properties cache = loadCache();
+        String cached = cache.getProperty(key);
+        if (cached != null) {
+            if (cached.equals(NOT_FOUND)) {
+                return null;
+            }
+            File cachedFile = new File(cached);
+            if (isExecutableFile(cachedFile)) {
+                return cachedFile;
+            }
+        }
+
+        File resolved = find(executableName, dirs, windows);
+        if (cacheFile != null) {
+            if (cache.size() >= MAX_CACHE_ENTRIES) {
+                cache.clear();
+            }
+            cache.setProperty(key, resolved != null ? resolved.getAbsolutePath() : NOT_FOUND);
+            storeCache(cache);
+        }
+        return resolved;
+    }
+
+    private static File find(String executableName, List<File> dirs, boolean windows) {
+        List<String> names = new ArrayList<>();
+        names.add(executableName);
+        if (windows) {
+            String pathExt = System.getenv("PATHEXT");
+            for (String ext : (pathExt != null ? pathExt : ".COM;.EXE;.BAT;.CMD").split(";")) {
+                if (!ext.isEmpty()) {
+                    names.add(executableName + ext.toLowerCase(Locale.US));
+                }
+            }
+        }
+
+        for (File dir : dirs) {
+            for (String name : names) {
+                File candidate = new File(dir, name);
+                if (isExecutableFile(candidate)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isExecutableFile(File file) {
+        return file.isFile() && Files.isExecutable(file.toPath());
+    }
+
+    private Properties loadCache() {
+        Properties properties = new Properties();
+        if (cacheFile != null && cacheFile.isFile()) {
+            try (InputStream in = new FileInputStream(cacheFile)) {
+                properties.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                // corrupt cache file, it is rewritten on the next store
+                properties.clear();
+            }
+        }
+        return properties;
+    }
+
+    private void storeCache(Properties properties) {
+        try {
+            File parent = cacheFile.getAbsoluteFile().getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) {
+                return;
+            }
+            File tmp = File.createTempFile("path-", ".part", parent);
+            try {
+                try (OutputStream out = new FileOutputStream(tmp)) {
+                    properties.store(out, "uber-apk-signer executable lookup cache");
+                }
+                try {
+                    Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            // memoization is best effort, the lookup result is still valid
+        }
+    }
+}
@@ -3,8 +3,12 @@ package at.favre.tools.apksigner;
 import at.favre.tools.apksigner.util.CmdUtil;
 import org.junit.Test;
 
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 public class CmdUtilTest {
 
@@ -13,4 +17,27 @@ public class CmdUtilTest {
         assertFalse("should not be able to run random", CmdUtil.canRunCmd(new String[]{"Thisadhpiwadahdjsahduhduwaheuawez27371236"}));
         assertTrue("should be able to run cmd 'java -version'", CmdUtil.canRunCmd(new String[]{"java", "-version"}));
     }
+
+    @Test
+    public void testOutputOnlyKeepsTail() throws Exception {
+        assumeTrue(CmdUtil.getOsType() != CmdUtil.OS.WIN);
+        CmdUtil.Result result = CmdUtil.runCmd(new String[]{"sh", "-c", "i=1; while [ $i -le 100 ]; do echo line$i; i=$((i+1)); done"}, 3, CmdUtil.NO_TIMEOUT);
+        assertTrue(result.success());
+        assertEquals("[97 lines omitted]\nline98\nline99\nline100\n", result.out);
+
+        result = CmdUtil.runCmd(new String[]{"sh", "-c", "echo a; echo b"}, 0, CmdUtil.NO_TIMEOUT);
+        assertTrue(result.success());
+        assertEquals("[2 lines omitted]\n", result.out);
+    }
+
+    @Test
+    public void testHungProcessIsKilled() throws Exception {
+        assumeTrue(CmdUtil.getOsType() != CmdUtil.OS.WIN);
+        long start = System.currentTimeMillis();
+        CmdUtil.Result result = CmdUtil.runCmd(new String[]{"sh", "-c", "echo started; exec sleep 60"}, 10, 500);
+        assertTrue(System.currentTimeMillis() - start < 30_000);
+        assertFalse(result.success());
+        assertTrue(result.exception instanceof TimeoutException);
+        assertEquals("started\n", result.out);
+    }
 }
@@ -0,0 +1,173 @@
+package at.favre.tools.apksigner;
+
+import at.favre.tools.apksigner.ui.CLIParser;
+import at.favre.tools.apksigner.ui.ConsoleLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SignDaemonTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File apkFolder, outFolder, daemonFile;
+    private SignDaemon daemon;
+    private Thread daemonThread;
+
+    @Before
+    public void setUp() throws Exception {
+        apkFolder = temporaryFolder.newFolder("apks");
+        outFolder = temporaryFolder.newFolder("out");
+        daemonFile = new File(temporaryFolder.getRoot(), "state/daemon");
+
+        File unsignedFolder = new File(getClass().getClassLoader().getResource("test-apks-unsigned").toURI().getPath());
+        for (File apk : unsignedFolder.listFiles()) {
+            Files.copy(apk.toPath(), new File(apkFolder, apk.getName()).toPath());
+        }
+
+        daemon = new SignDaemon(daemonFile, new ConsoleLog(System.out, System.err));
+        daemon.start();
+        daemonThread = new Thread(() -> daemon.acceptJobs());
+    }
+
+    @After
+    public void tearDown() {
+        daemon.stop();
+    }
+
+    @Test
+    public void testDaemonFile() throws Exception {
+        List<String> lines = Files.readAllLines(daemonFile.toPath());
+        assertEquals(String.valueOf(daemon.getPort()), lines.get(0));
+        assertEquals(daemon.getToken(), lines.get(1));
+    }
+
+    @Test
+    public void testSignJobs() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            List<String> response = runJob(daemon.getToken(), SignDaemon.CMD_RUN,
+                    "-" + CLIParser.ARG_APK_FILE, apkFolder.getAbsolutePath(), "-" + CLIParser.ARG_APK_OUT, outFolder.getAbsolutePath());
+
+            assertEquals("exit 0", response.get(response.size() - 1));
+            assertEquals(apkFolder.listFiles().length, response.stream().filter(l -> l.startsWith("apk SUCCESS ")).count());
+            assertTrue(response.stream().anyMatch(l -> l.startsWith("out ")));
+        }
+    }
+
+    @Test
+    public void testRelativePathsAreResolvedAgainstClientDir() throws Exception {
+        File clientDir = temporaryFolder.getRoot();
+        List<String> response = runJob(daemon.getToken(), SignDaemon.CMD_RUN + " " + clientDir.getAbsolutePath(),
+                "-" + CLIParser.ARG_APK_FILE, apkFolder.getName(), "-" + CLIParser.ARG_APK_OUT, outFolder.getName());
+
+        assertEquals("exit 0", response.get(response.size() - 1));
+        assertEquals(apkFolder.listFiles().length, response.stream().filter(l -> l.startsWith("apk SUCCESS " + apkFolder.getAbsolutePath())).count());
+        assertEquals(apkFolder.listFiles().length, outFolder.listFiles((dir, name) -> name.endsWith(".apk")).length);
+    }
+
+    @Test
+    public void testRelativePathWithoutClientDirIsRejected() throws Exception {
+        List<String> response = runJob(daemon.getToken(), SignDaemon.CMD_RUN, "-" + CLIParser.ARG_APK_FILE, apkFolder.getName());
+
+        assertEquals("exit 1", response.get(response.size() - 1));
+        assertTrue(response.stream().anyMatch(l -> l.startsWith("err relative path '" + apkFolder.getName() + "'")));
+        assertFalse(response.stream().anyMatch(l -> l.startsWith("apk ")));
+    }
+
+    @Test
+    public void testVerifyJobWithFailures() throws Exception {
+        List<String> response = runJob(daemon.getToken(), SignDaemon.CMD_RUN,
+                "-" + CLIParser.ARG_APK_FILE, apkFolder.getAbsolutePath(), "--" + CLIParser.ARG_VERIFY);
+
+        assertEquals("exit 2", response.get(response.size() - 1));
+        assertEquals(apkFolder.listFiles().length, response.stream().filter(l -> l.startsWith("apk FAILED ")).count());
+    }
+
+    @Test
+    public void testInvalidArguments() throws Exception {
+        List<String> response = runJob(daemon.getToken(), SignDaemon.CMD_RUN, "--" + CLIParser.ARG_THREADS, "0");
+        assertEquals("exit 0", response.get(response.size() - 1));
+        assertTrue(response.stream().anyMatch(l -> l.startsWith("err ")));
+    }
+
+    @Test
+    public void testWatchJobIsRejected() throws Exception {
+        List<String> response = runJob(daemon.getToken(), SignDaemon.CMD_RUN, "--" + CLIParser.ARG_WATCH, apkFolder.getAbsolutePath(),
+                "-" + CLIParser.ARG_APK_OUT, outFolder.getAbsolutePath());
+
+        assertEquals("exit 1", response.get(response.size() - 1));
+        assertTrue(response.stream().anyMatch(l -> l.startsWith("err a daemon job cannot watch a folder")));
+    }
+
+    @Test
+    public void testDebugStackTraceIsSentToClient() throws Exception {
+        File emptyFolder = temporaryFolder.newFolder("empty");
+        List<String> response = runJob(daemon.getToken(), SignDaemon.CMD_RUN, "-" + CLIParser.ARG_APK_FILE, emptyFolder.getAbsolutePath(), "--debug");
+
+        assertEquals("exit 1", response.get(response.size() - 1));
+        assertTrue(response.stream().anyMatch(l -> l.startsWith("err java.lang.IllegalStateException: no apk files found")));
+        assertTrue(response.stream().anyMatch(l -> l.startsWith("err \tat ")));
+    }
+
+    @Test
+    public void testMissingPasswordIsRejected() throws Exception {
+        File ks = new File(getClass().getClassLoader().getResource("test-release-key.jks").toURI().getPath());
+        List<String> response = runJob(daemon.getToken(), SignDaemon.CMD_RUN,
+                "-" + CLIParser.ARG_APK_FILE, apkFolder.getAbsolutePath(), "--ks", ks.getAbsolutePath(), "--ksAlias", "app");
+        assertEquals("exit 1", response.get(response.size() - 1));
+    }
+
+    @Test
+    public void testWrongToken() throws Exception {
+        List<String> response = runJob("wrong", SignDaemon.CMD_RUN, "-" + CLIParser.ARG_APK_FILE, apkFolder.getAbsolutePath());
+        assertEquals(Arrays.asList("err invalid token", "exit 1"), response);
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        daemonThread.start();
+        List<String> response = runJob(daemon.getToken(), SignDaemon.CMD_STOP);
+        assertEquals("exit 0", response.get(response.size() - 1));
+        daemonThread.join(10_000);
+        assertFalse(daemonThread.isAlive());
+        assertFalse(daemonFile.exists());
+    }
+
+    private List<String> runJob(String token, String command, String... args) throws Exception {
+        if (!daemonThread.isAlive()) {
+            daemonThread.start();
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            PrintStream out = new PrintStream(socket.getOutputStream(), true, "UTF-8");
+            out.println(token);
+            out.println(command);
+            for (String arg : args) {
+                out.println(arg);
+            }
+            out.println();
+
+            List<String> response = new ArrayList<>();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                response.add(line);
+            }
+            return response;
+        }
+    }
+}
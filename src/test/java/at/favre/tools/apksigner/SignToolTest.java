@@ -1,8 +1,10 @@
 package at.favre.tools.apksigner;
 
 import at.favre.tools.apksigner.signing.AndroidApkSignerVerify;
+import at.favre.tools.apksigner.signing.ZipAligner;
 import at.favre.tools.apksigner.ui.CLIParser;
 import at.favre.tools.apksigner.ui.CLIParserTest;
+import at.favre.tools.apksigner.ui.ConsoleLog;
 import at.favre.tools.apksigner.ui.MultiKeystoreParser;
 import at.favre.tools.apksigner.util.FileUtil;
 import org.junit.Before;
@@ -10,12 +12,17 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static junit.framework.TestCase.*;
@@ -100,6 +107,307 @@ public class SignToolTest {
         testAndCheck(cmd, originalFolder, outFolder, uApks);
     }
 
+    @Test
+    public void testSignMultiApkWithExternalZipalign() throws Exception {
+        List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath() + " --debug --" + CLIParser.ARG_ZIPALIGN_EXTERNAL;
+        testAndCheck(cmd, originalFolder, outFolder, uApks);
+    }
+
+    @Test
+    public void testSignMultipleApksParallel() throws Exception {
+        List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath() + " --" + CLIParser.ARG_THREADS + " 3";
+        testAndCheck(cmd, originalFolder, outFolder, uApks);
+    }
+
+    @Test
+    public void testSignMoreApksThanPendingLimitParallelKeepsLogOrder() throws Exception {
+        for (String subFolder : new String[]{"a", "b", "c"}) {
+            File folder = new File(originalFolder, subFolder);
+            folder.mkdirs();
+            copyToTestPath(folder, unsingedApks);
+        }
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath()
+                + " --" + CLIParser.ARG_MAX_DEPTH + " 2 --" + CLIParser.ARG_THREADS + " 2";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SignTool.Result result = SignTool.execute(CLIParser.parse(CLIParserTest.asArgArray(cmd)),
+                new ConsoleLog(new PrintStream(out, true, "UTF-8"), new PrintStream(new ByteArrayOutputStream(), true, "UTF-8")), null);
+
+        assertFalse(result.error);
+        assertEquals(unsingedApks.size() * 3, result.success);
+        String log = out.toString("UTF-8");
+        int previous = -1;
+        for (int i = 1; i <= unsingedApks.size() * 3; i++) {
+            int index = log.indexOf(String.format("\n%02d. ", i));
+            assertTrue(log, index > previous);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void testSignMultipleApksParallelWithSharedDigestThreads() throws Exception {
+        List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath()
+                + " --" + CLIParser.ARG_THREADS + " 3 --" + CLIParser.ARG_DIGEST_THREADS + " 2";
+        testAndCheck(cmd, originalFolder, outFolder, uApks);
+    }
+
+    @Test
+    public void testSignMultipleApksOverwriteAligned() throws Exception {
+        List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " --overwrite";
+        testAndCheck(cmd, null, originalFolder, uApks);
+        assertEquals(uApks.size(), originalFolder.listFiles().length);
+        for (File apk : uApks) {
+            assertTrue(new ZipAligner().verify(apk, true).isAligned());
+        }
+    }
+
+    @Test
+    public void testSignMultipleApksInMemory() throws Exception {
+        List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath()
+                + " --" + CLIParser.ARG_IN_MEMORY_MAX_SIZE + " 64 --" + CLIParser.ARG_V4 + " true";
+        testAndCheck(cmd, originalFolder, outFolder, uApks);
+        assertEquals(uApks.size(), outFolder.listFiles((dir, name) -> name.endsWith(".apk.idsig")).length);
+    }
+
+    @Test
+    public void testSignMultipleApksInMemoryOverwrite() throws Exception {
+        List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " --overwrite --" + CLIParser.ARG_IN_MEMORY_MAX_SIZE + " 64";
+        testAndCheck(cmd, null, originalFolder, uApks);
+        assertEquals(uApks.size(), originalFolder.listFiles().length);
+    }
+
+    @Test
+    public void testSignWithoutV1() throws Exception {
+        List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath()
+                + " --" + CLIParser.ARG_V1 + " false --" + CLIParser.ARG_V4 + " false --" + CLIParser.ARG_MIN_SDK + " 24";
+        SignTool.Result result = SignTool.mainExecute(CLIParserTest.asArgArray(cmd));
+        assertNotNull(result);
+        assertEquals(uApks.size(), result.success);
+        for (SignTool.ApkResult apkResult : result.apkResults) {
+            assertFalse(apkResult.signatureCheck.result.v1Schema);
+            assertTrue(apkResult.signatureCheck.result.v2Schema);
+        }
+        assertEquals(0, outFolder.listFiles((dir, name) -> name.endsWith(".idsig")).length);
+    }
+
+    @Test
+    public void testSignWithV4InSeparateFolder() throws Exception {
+        List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+        File idsigFolder = new File(temporaryFolder.getRoot(), "idsig");
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath()
+                + " --" + CLIParser.ARG_V4 + " true --" + CLIParser.ARG_IDSIG_OUT + " " + idsigFolder.getAbsolutePath();
+        SignTool.Result result = SignTool.mainExecute(CLIParserTest.asArgArray(cmd));
+        assertNotNull(result);
+        assertEquals(uApks.size(), result.success);
+        assertEquals(0, outFolder.listFiles((dir, name) -> name.endsWith(".idsig")).length);
+        assertEquals(uApks.size(), idsigFolder.listFiles((dir, name) -> name.endsWith(".apk.idsig")).length);
+        for (SignTool.ApkResult apkResult : result.apkResults) {
+            assertTrue(new File(idsigFolder, apkResult.outputFile.getName() + ".idsig").isFile());
+        }
+    }
+
+    @Test
+    public void testSignWithSigningCache() throws Exception {
+        List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+        File cacheDir = temporaryFolder.newFolder("signer-test", "cache");
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath() + " --" + CLIParser.ARG_CACHE_DIR + " " + cacheDir.getAbsolutePath();
+        testAndCheck(cmd, originalFolder, outFolder, uApks);
+        assertEquals(uApks.size(), cacheDir.listFiles(pathname -> pathname.getName().endsWith(".apk")).length);
+
+        File outFolder2 = temporaryFolder.newFolder("signer-test", "out2");
+        String cmd2 = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder2.getAbsolutePath() + " --" + CLIParser.ARG_CACHE_DIR + " " + cacheDir.getAbsolutePath();
+        testAndCheck(cmd2, originalFolder, outFolder2, uApks);
+        assertEquals(outFolder.listFiles().length, outFolder2.listFiles().length);
+        assertEquals(uApks.size(), cacheDir.listFiles(pathname -> pathname.getName().endsWith(".apk")).length);
+    }
+
+    @Test
+    public void testSignWithReport() throws Exception {
+        List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+        File reportFile = new File(temporaryFolder.getRoot(), "report/report.json");
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath() + " --" + CLIParser.ARG_REPORT + " " + reportFile.getAbsolutePath() + " --" + CLIParser.ARG_V4 + " true";
+        testAndCheck(cmd, originalFolder, outFolder, uApks);
+
+        String report = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+        assertEquals(uApks.size(), report.split("\"status\": \"SUCCESS\"", -1).length - 1);
+        for (String phase : new String[]{"preCheck", "checksum", "align", "sign", "v4", "alignVerify", "sigVerify"}) {
+            assertTrue(phase, report.contains("\"" + phase + "\": {"));
+        }
+        assertTrue(report.contains("\"p90Ms\""));
+    }
+
+    @Test
+    public void testNdjsonOutput() throws Exception {
+        List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath()
+                + " --" + CLIParser.ARG_OUTPUT_FORMAT + " ndjson --" + CLIParser.ARG_THREADS + " 2";
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        SignTool.Result result = SignTool.execute(CLIParser.parse(CLIParserTest.asArgArray(cmd)),
+                new ConsoleLog(new PrintStream(out, true, "UTF-8"), new PrintStream(err, true, "UTF-8")), null);
+
+        assertEquals(0, result.exitCode());
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).trim().split("\n");
+        assertEquals(uApks.size(), lines.length);
+        for (String line : lines) {
+            assertTrue(line, line.startsWith("{\"file\":") && line.endsWith("}"));
+            assertTrue(line, line.contains("\"status\":\"SUCCESS\""));
+            assertTrue(line, line.contains("\"verified\":true"));
+            assertTrue(line, line.contains("\"sign\":{\"ms\":"));
+        }
+        assertTrue(new String(err.toByteArray(), StandardCharsets.UTF_8).contains("VERIFY"));
+    }
+
+    @Test
+    public void testNdjsonOutputOverwriteKeepsInputHash() throws Exception {
+        for (String extraArgs : new String[]{"", " --" + CLIParser.ARG_IN_MEMORY_MAX_SIZE + " 64"}) {
+            FileUtil.removeRecursive(originalFolder.toPath());
+            originalFolder.mkdirs();
+            List<File> uApks = copyToTestPath(originalFolder, unsingedApks);
+            Map<String, String> inputHashes = new HashMap<>();
+            for (File apk : uApks) {
+                inputHashes.put(apk.getAbsolutePath(), FileUtil.createChecksum(apk, "SHA-256"));
+            }
+
+            String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " --overwrite --" + CLIParser.ARG_OUTPUT_FORMAT + " ndjson" + extraArgs;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            SignTool.Result result = SignTool.execute(CLIParser.parse(CLIParserTest.asArgArray(cmd)),
+                    new ConsoleLog(new PrintStream(out, true, "UTF-8"), new PrintStream(new ByteArrayOutputStream(), true, "UTF-8")), null);
+
+            assertEquals(0, result.exitCode());
+            assertEquals(uApks.size(), result.apkResults.size());
+            String ndjson = new String(out.toByteArray(), StandardCharsets.UTF_8);
+            for (SignTool.ApkResult apkResult : result.apkResults) {
+                String inputHash = inputHashes.get(apkResult.apkFile.getAbsolutePath());
+                assertEquals(extraArgs, inputHash, apkResult.inputSha256);
+                assertEquals(extraArgs, FileUtil.createChecksum(apkResult.apkFile, "SHA-256"), apkResult.outputSha256);
+                assertFalse(extraArgs, apkResult.inputSha256.equals(apkResult.outputSha256));
+                assertTrue(extraArgs, ndjson.contains("\"inputSha256\":\"" + inputHash + "\""));
+            }
+        }
+    }
+
+    @Test
+    public void testVerifyRecursive() throws Exception {
+        File nested = new File(originalFolder, "release/nested");
+        nested.mkdirs();
+        copyToTestPath(nested, singedApks);
+        File excluded = new File(originalFolder, "tmp");
+        excluded.mkdirs();
+        copyToTestPath(excluded, unsingedApks);
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " --" + CLIParser.ARG_VERIFY + " --" + CLIParser.ARG_SKIP_ZIPALIGN
+                + " --" + CLIParser.ARG_MAX_DEPTH + " 3 --" + CLIParser.ARG_EXCLUDE + " tmp --" + CLIParser.ARG_THREADS + " 2";
+        SignTool.Result result = SignTool.mainExecute(CLIParserTest.asArgArray(cmd));
+        assertNotNull(result);
+        assertEquals(0, result.unsuccessful);
+        assertEquals(singedApks.size(), result.success);
+    }
+
+    @Test
+    public void testSignRecursiveSameNamesKeepsSubFolders() throws Exception {
+        File debug = new File(originalFolder, "debug");
+        File release = new File(originalFolder, "release");
+        debug.mkdirs();
+        release.mkdirs();
+        copyToTestPath(debug, unsingedApks);
+        copyToTestPath(release, unsingedApks);
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath()
+                + " --" + CLIParser.ARG_MAX_DEPTH + " 2 --" + CLIParser.ARG_THREADS + " 2";
+        SignTool.Result result = SignTool.mainExecute(CLIParserTest.asArgArray(cmd));
+        assertNotNull(result);
+        assertFalse(result.error);
+        assertEquals(0, result.unsuccessful);
+        assertEquals(unsingedApks.size() * 2, result.success);
+
+        for (File subFolder : new File[]{new File(outFolder, "debug"), new File(outFolder, "release")}) {
+            File[] signed = subFolder.listFiles((dir, name) -> name.endsWith(".apk"));
+            assertNotNull(signed);
+            assertEquals(unsingedApks.size(), signed.length);
+        }
+    }
+
+    @Test
+    public void testSignSameNamesIntoOneOutFolderFailsSecond() throws Exception {
+        File debug = new File(originalFolder, "debug");
+        File release = new File(originalFolder, "release");
+        debug.mkdirs();
+        release.mkdirs();
+        copyToTestPath(debug, unsingedApks);
+        copyToTestPath(release, unsingedApks);
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + debug.getAbsolutePath() + " " + release.getAbsolutePath()
+                + " -" + CLIParser.ARG_APK_OUT + " " + outFolder.getAbsolutePath() + " --" + CLIParser.ARG_THREADS + " 2";
+        SignTool.Result result = SignTool.mainExecute(CLIParserTest.asArgArray(cmd));
+        assertNotNull(result);
+        assertFalse(result.error);
+        assertEquals(unsingedApks.size(), result.success);
+        assertEquals(unsingedApks.size(), result.unsuccessful);
+        for (SignTool.ApkResult apkResult : result.apkResults) {
+            assertEquals(apkResult.apkFile.getParentFile().equals(debug) ? SignTool.ApkStatus.SUCCESS : SignTool.ApkStatus.FAILED, apkResult.status);
+        }
+    }
+
+    @Test
+    public void testSignDifferentNamesWithSameOutputFailsSecond() throws Exception {
+        Files.copy(unsingedApks.get(0).toPath(), new File(originalFolder, "app.apk").toPath());
+        Files.copy(unsingedApks.get(0).toPath(), new File(originalFolder, "app-unsigned.apk").toPath());
+
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " --" + CLIParser.ARG_THREADS + " 2";
+        SignTool.Result result = SignTool.mainExecute(CLIParserTest.asArgArray(cmd));
+        assertNotNull(result);
+        assertFalse(result.error);
+        assertEquals(1, result.success);
+        assertEquals(1, result.unsuccessful);
+        assertTrue(new File(originalFolder, "app-aligned-debugSigned.apk").isFile());
+    }
+
+    @Test
+    public void testVerifyWithIndex() throws Exception {
+        copyToTestPath(originalFolder, singedApks);
+        copyToTestPath(originalFolder, unsingedApks);
+        File indexFile = new File(temporaryFolder.getRoot(), "verify.idx");
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " --" + CLIParser.ARG_VERIFY + " --" + CLIParser.ARG_SKIP_ZIPALIGN
+                + " --" + CLIParser.ARG_VERIFY_INDEX + " " + indexFile.getAbsolutePath();
+
+        assertEquals(0, verifyAndCountFromIndex(cmd));
+        assertTrue(indexFile.isFile());
+        assertEquals(singedApks.size() + unsingedApks.size(), verifyAndCountFromIndex(cmd));
+        assertEquals(0, verifyAndCountFromIndex(cmd + " --" + CLIParser.ARG_FORCE_VERIFY));
+    }
+
+    @Test
+    public void testVerifyParallel() throws Exception {
+        copyToTestPath(originalFolder, singedApks);
+        copyToTestPath(originalFolder, unsingedApks);
+        String cmd = "-" + CLIParser.ARG_APK_FILE + " " + originalFolder.getAbsolutePath() + " --" + CLIParser.ARG_VERIFY + " --" + CLIParser.ARG_SKIP_ZIPALIGN + " --" + CLIParser.ARG_THREADS + " 4";
+        System.out.println(cmd);
+
+        SignTool.Result result = SignTool.mainExecute(CLIParserTest.asArgArray(cmd));
+        assertNotNull(result);
+        assertEquals(unsingedApks.size(), result.unsuccessful);
+        assertEquals(singedApks.size(), result.success);
+    }
+
     @Test
     public void testNoApksGiven() throws Exception {
         copyToTestPath(originalFolder, Collections.singletonList(testReleaseKs));
@@ -180,12 +488,13 @@ public class SignToolTest {
         assertNotNull(result);
         assertEquals(0, result.unsuccessful);
         assertEquals(1, result.success);
-        assertEquals(2, outFolder.listFiles().length); // contains apk and v4 apk.idsign
-        AndroidApkSignerVerify.Result verifyResult = new AndroidApkSignerVerify().verify(outFolder.listFiles()[0], null, null, null, false);
+        assertEquals(1, outFolder.listFiles().length); // v4 is opt-in, so no apk.idsig
+        File resignedApk = outFolder.listFiles(pathname -> FileUtil.getFileExtension(pathname).equalsIgnoreCase("apk"))[0];
+        AndroidApkSignerVerify.Result verifyResult = new AndroidApkSignerVerify().verify(resignedApk, null, null, null, false);
         assertTrue(verifyResult.verified);
         assertEquals(0, verifyResult.warnings.size());
         assertEquals(0, verifyResult.errors.size());
-        assertEquals(releaseCertSha256, verifyResult.certInfoList.get(0).certSha256);
+        assertEquals(releaseCertSha256, verifyResult.certInfoList.get(0).getCertSha256());
     }
 
     @Test
@@ -250,6 +559,15 @@ public class SignToolTest {
         }
     }
 
+    private int verifyAndCountFromIndex(String cmd) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SignTool.Result result = SignTool.execute(CLIParser.parse(CLIParserTest.asArgArray(cmd)),
+                new ConsoleLog(new PrintStream(out, true, "UTF-8"), new PrintStream(out, true, "UTF-8")), null);
+        assertEquals(unsingedApks.size(), result.unsuccessful);
+        assertEquals(singedApks.size(), result.success);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8).split("from index", -1).length - 1;
+    }
+
     private static List<File> copyToTestPath(File target, List<File> source) throws Exception {
         List<File> copiedFiles = new ArrayList<>();
         for (File file : source) {
@@ -0,0 +1,99 @@
+package at.favre.tools.apksigner;
+
+import at.favre.tools.apksigner.ui.Arg;
+import at.favre.tools.apksigner.ui.CLIParser;
+import at.favre.tools.apksigner.ui.ConsoleLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.*;
+
+public class SignWatcherTest {
+    private static final long TIMEOUT_MS = 60_000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File watchFolder, outFolder, unsignedApk;
+    private SignWatcher watcher;
+    private Thread watcherThread;
+
+    @Before
+    public void setUp() throws Exception {
+        watchFolder = temporaryFolder.newFolder("watch");
+        outFolder = temporaryFolder.newFolder("out");
+        unsignedApk = new File(getClass().getClassLoader().getResource("test-apks-unsigned").toURI().getPath()).listFiles()[0];
+
+        Arg args = CLIParser.parse(new String[]{"--" + CLIParser.ARG_WATCH, watchFolder.getAbsolutePath(), "-" + CLIParser.ARG_APK_OUT, outFolder.getAbsolutePath()});
+        watcher = new SignWatcher(args, new ConsoleLog(System.out, System.err), 100);
+        watcherThread = new Thread(() -> {
+            try {
+                watcher.watch();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        watcher.stop();
+        watcherThread.join(TIMEOUT_MS);
+    }
+
+    @Test
+    public void testSignsExistingAndNewApks() throws Exception {
+        Files.copy(unsignedApk.toPath(), new File(watchFolder, "existing.apk").toPath());
+        watcherThread.start();
+        waitForOutputs(1);
+
+        File tmp = new File(temporaryFolder.getRoot(), "new.apk");
+        Files.copy(unsignedApk.toPath(), tmp.toPath());
+        Files.move(tmp.toPath(), new File(watchFolder, "new.apk").toPath(), StandardCopyOption.ATOMIC_MOVE);
+        waitForOutputs(2);
+
+        assertTrue(outFolder.listFiles((dir, name) -> name.startsWith("existing") && name.endsWith("-aligned-debugSigned.apk")).length == 1);
+        assertTrue(outFolder.listFiles((dir, name) -> name.startsWith("new") && name.endsWith("-aligned-debugSigned.apk")).length == 1);
+    }
+
+    @Test
+    public void testIgnoresNonApkFiles() throws Exception {
+        watcherThread.start();
+        Files.write(new File(watchFolder, "readme.txt").toPath(), new byte[]{1, 2, 3});
+        Files.copy(unsignedApk.toPath(), new File(watchFolder, "app.apk").toPath());
+        waitForOutputs(1);
+
+        Thread.sleep(500);
+        assertEquals(1, signedOutputs().length);
+    }
+
+    @Test
+    public void testBrokenApkDoesNotHoldBackOthersInBatch() throws Exception {
+        Files.write(new File(watchFolder, "a-broken.apk").toPath(), new byte[]{'P', 'K', 3, 4, 1, 2, 3});
+        Files.copy(unsignedApk.toPath(), new File(watchFolder, "b-app.apk").toPath());
+        watcherThread.start();
+        waitForOutputs(1);
+
+        assertEquals(1, outFolder.listFiles((dir, name) -> name.startsWith("b-app")).length);
+    }
+
+    private void waitForOutputs(int count) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (signedOutputs().length < count) {
+            if (System.currentTimeMillis() - start > TIMEOUT_MS) {
+                fail("expected " + count + " signed apks in out folder");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private File[] signedOutputs() {
+        return outFolder.listFiles((dir, name) -> name.endsWith("-aligned-debugSigned.apk"));
+    }
+}
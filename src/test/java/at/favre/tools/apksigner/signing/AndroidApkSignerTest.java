@@ -0,0 +1,192 @@
+package at.favre.tools.apksigner.signing;
+
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.ReadableDataSink;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class AndroidApkSignerTest {
+    private final static String releaseCertSha256 = "29728d7bffedbc3a8e3e3a9cbd1959cc724ae7c178cacf01547f0831fe64c3f1";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File unsignedApk;
+    private SigningConfig releaseConfig;
+
+    @Before
+    public void setUp() throws Exception {
+        File testReleaseKs = new File(getClass().getClassLoader().getResource("test-release-key.jks").toURI().getPath());
+        unsignedApk = temporaryFolder.newFile("app-unsigned.apk");
+        Files.copy(new File(getClass().getClassLoader().getResource("test-apks-unsigned/app-first-release-unsigned.apk").toURI().getPath()).toPath(),
+                unsignedApk.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        releaseConfig = loadConfig(testReleaseKs, "app", "password", "keypass");
+    }
+
+    @Test
+    public void testSign() throws Exception {
+        File out = new File(temporaryFolder.getRoot(), "app-signed.apk");
+        new AndroidApkSigner(Collections.singletonList(releaseConfig), null).sign(unsignedApk, out);
+
+        assertVerified(out);
+        assertTrue(new File(out.getAbsolutePath() + ".idsig").exists());
+    }
+
+    @Test
+    public void testSignInPlace() throws Exception {
+        new AndroidApkSigner(Collections.singletonList(releaseConfig), null).sign(unsignedApk, unsignedApk);
+
+        assertVerified(unsignedApk);
+        assertEquals(2, temporaryFolder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void testSignSameSignerMultipleApks() throws Exception {
+        AndroidApkSigner signer = new AndroidApkSigner(Collections.singletonList(releaseConfig), null);
+        File out1 = new File(temporaryFolder.getRoot(), "app-signed1.apk");
+        File out2 = new File(temporaryFolder.getRoot(), "app-signed2.apk");
+        signer.sign(unsignedApk, out1);
+        signer.sign(unsignedApk, out2);
+
+        assertVerified(out1);
+        assertVerified(out2);
+    }
+
+    @Test
+    public void testSignWithoutV1AndV4() throws Exception {
+        File out = new File(temporaryFolder.getRoot(), "app-signed.apk");
+        AndroidApkSigner signer = new AndroidApkSigner(Collections.singletonList(releaseConfig), null, false, true, true, false, 24, null);
+        signer.sign(unsignedApk, out);
+
+        AndroidApkSignerVerify.Result result = new AndroidApkSignerVerify().verify(out, 24, null, null, false);
+        assertTrue(result.verified);
+        assertFalse(result.v1Schema);
+        assertTrue(result.v2Schema);
+        assertFalse(new File(out.getAbsolutePath() + ".idsig").exists());
+        assertEquals("v2,v3;minSdk=24", signer.getSchemes());
+        assertEquals("v1,v2,v3,v4", new AndroidApkSigner(Collections.singletonList(releaseConfig), null).getSchemes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testV4WithoutV2AndV3NotAllowed() throws Exception {
+        new AndroidApkSigner(Collections.singletonList(releaseConfig), null, true, false, false, true, null, null);
+    }
+
+    @Test
+    public void testV4SignatureInSeparateFolder() throws Exception {
+        File idsigFolder = new File(temporaryFolder.getRoot(), "idsig");
+        File out = new File(temporaryFolder.getRoot(), "app-signed.apk");
+        AndroidApkSigner signer = new AndroidApkSigner(Collections.singletonList(releaseConfig), null, true, true, true, true, null, idsigFolder);
+        signer.sign(unsignedApk, out);
+
+        assertEquals(new File(idsigFolder, "app-signed.apk.idsig").getCanonicalFile(), signer.getV4SignatureFile(out).getCanonicalFile());
+        assertTrue(signer.getV4SignatureFile(out).isFile());
+        assertFalse(new File(out.getAbsolutePath() + ".idsig").exists());
+        assertVerified(out);
+        assertNull(new AndroidApkSigner(Collections.singletonList(releaseConfig), null, true, true, true, false, null, null).getV4SignatureFile(out));
+    }
+
+    @Test
+    public void testSignWithDigestExecutor() throws Exception {
+        File outDefault = new File(temporaryFolder.getRoot(), "app-signed-default.apk");
+        File outShared = new File(temporaryFolder.getRoot(), "app-signed-shared.apk");
+        new AndroidApkSigner(Collections.singletonList(releaseConfig), null, true, true, true, false, null, null).sign(unsignedApk, outDefault);
+        try (DigestExecutor digestExecutor = new DigestExecutor(4)) {
+            new AndroidApkSigner(Collections.singletonList(releaseConfig), null, true, true, true, false, null, null, digestExecutor)
+                    .sign(unsignedApk, outShared);
+        }
+
+        assertVerified(outShared);
+        assertArrayEquals(Files.readAllBytes(outDefault.toPath()), Files.readAllBytes(outShared.toPath()));
+    }
+
+    @Test
+    public void testSignWhileAligning() throws Exception {
+        AndroidApkSigner signer = new AndroidApkSigner(Collections.singletonList(releaseConfig), null);
+        File aligned = new File(temporaryFolder.getRoot(), "app-aligned.apk");
+        File outTwoPass = new File(temporaryFolder.getRoot(), "app-aligned-signed.apk");
+        File outSinglePass = new File(temporaryFolder.getRoot(), "app-signed.apk");
+        new ZipAligner().align(unsignedApk, aligned);
+        signer.sign(aligned, outTwoPass);
+        signer.sign(unsignedApk, outSinglePass, true);
+
+        assertVerified(outSinglePass);
+        assertTrue(new ZipAligner().verify(outSinglePass, true).isAligned());
+        assertArrayEquals(Files.readAllBytes(outTwoPass.toPath()), Files.readAllBytes(outSinglePass.toPath()));
+    }
+
+    @Test
+    public void testSignWhileAligningInPlace() throws Exception {
+        new AndroidApkSigner(Collections.singletonList(releaseConfig), null).sign(unsignedApk, unsignedApk, true);
+
+        assertVerified(unsignedApk);
+        assertTrue(new ZipAligner().verify(unsignedApk, true).isAligned());
+    }
+
+    @Test
+    public void testSignInMemory() throws Exception {
+        AndroidApkSigner signer = new AndroidApkSigner(Collections.singletonList(releaseConfig), null, true, true, true, true, null, null);
+        File outFile = new File(temporaryFolder.getRoot(), "app-signed-file.apk");
+        File outMemory = new File(temporaryFolder.getRoot(), "app-signed-memory.apk");
+        signer.sign(unsignedApk, outFile);
+
+        ReadableDataSink signed = signer.sign(DataSources.asDataSource(ByteBuffer.wrap(Files.readAllBytes(unsignedApk.toPath()))), outMemory);
+        ByteBuffer signedBytes = signed.getByteBuffer(0, (int) signed.size());
+        byte[] signedArray = new byte[signedBytes.remaining()];
+        signedBytes.get(signedArray);
+
+        assertFalse(outMemory.exists());
+        assertTrue(signer.getV4SignatureFile(outMemory).isFile());
+        assertArrayEquals(Files.readAllBytes(outFile.toPath()), signedArray);
+        assertTrue(new AndroidApkSignerVerify().verify(signed, null, null, null, false).verified);
+    }
+
+    @Test
+    public void testCertInfoIsSharedPerCertificate() throws Exception {
+        AndroidApkSigner signer = new AndroidApkSigner(Collections.singletonList(releaseConfig), null);
+        File out1 = new File(temporaryFolder.getRoot(), "app-signed1.apk");
+        File out2 = new File(temporaryFolder.getRoot(), "app-signed2.apk");
+        signer.sign(unsignedApk, out1);
+        signer.sign(unsignedApk, out2);
+
+        AndroidApkSignerVerify.CertInfo certInfo = new AndroidApkSignerVerify().verify(out1, null, null, null, false).certInfoList.get(0);
+        assertSame(certInfo, new AndroidApkSignerVerify().verify(out2, null, null, null, false).certInfoList.get(0));
+        assertSame(certInfo, AndroidApkSignerVerify.certInfo(releaseConfig.certificateChain.get(0)));
+        assertSame(certInfo, AndroidApkSignerVerify.certInfo(certInfo.getEncoded()));
+
+        assertEquals(releaseCertSha256, certInfo.getCertSha256());
+        assertEquals(releaseConfig.certificateChain.get(0).getNotAfter(), certInfo.getExpiry());
+        assertTrue(certInfo.getSubjectDn().startsWith("Subject: "));
+        assertTrue(certInfo.getPubKeysize() > 0);
+    }
+
+    private static SigningConfig loadConfig(File keystore, String alias, String pass, String keyPass) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream in = new FileInputStream(keystore)) {
+            keyStore.load(in, pass.toCharArray());
+        }
+        return new SigningConfig(SigningConfig.KeystoreLocation.RELEASE_CUSTOM, 0, false, keystore, alias, pass, keyPass,
+                (PrivateKey) keyStore.getKey(alias, keyPass.toCharArray()),
+                Collections.singletonList((X509Certificate) keyStore.getCertificate(alias)));
+    }
+
+    private static void assertVerified(File apk) throws Exception {
+        AndroidApkSignerVerify.Result result = new AndroidApkSignerVerify().verify(apk, null, null, null, false);
+        assertTrue(result.verified);
+        assertTrue(result.errors.isEmpty());
+        assertEquals(releaseCertSha256, result.certInfoList.get(0).getCertSha256());
+    }
+}
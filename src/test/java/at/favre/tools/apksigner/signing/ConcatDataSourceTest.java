@@ -0,0 +1,69 @@
+package at.favre.tools.apksigner.signing;
+
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSinks;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.ReadableDataSink;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ConcatDataSourceTest {
+    private final byte[] expected = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+    private final DataSource source = new ConcatDataSource(Arrays.asList(
+            part(0, 1, 2), part(), part(3), part(4, 5, 6, 7), part(8, 9)));
+
+    @Test
+    public void testSize() {
+        assertEquals(expected.length, source.size());
+        assertEquals(0, new ConcatDataSource(Arrays.asList(part(), part())).size());
+    }
+
+    @Test
+    public void testReadEveryRange() throws Exception {
+        for (int offset = 0; offset <= expected.length; offset++) {
+            for (int size = 0; offset + size <= expected.length; size++) {
+                byte[] range = Arrays.copyOfRange(expected, offset, offset + size);
+                assertArrayEquals(range, toArray(source.getByteBuffer(offset, size)));
+                assertArrayEquals(range, toArray(source.slice(offset, size).getByteBuffer(0, size)));
+
+                ByteBuffer copy = ByteBuffer.allocate(size);
+                source.copyTo(offset, size, copy);
+                copy.flip();
+                assertArrayEquals(range, toArray(copy));
+
+                ReadableDataSink sink = DataSinks.newInMemoryDataSink();
+                source.feed(offset, size, sink);
+                assertArrayEquals(range, toArray(sink.getByteBuffer(0, (int) sink.size())));
+            }
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testReadOutOfBounds() throws Exception {
+        source.getByteBuffer(8, 3);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testFeedNegativeOffset() throws Exception {
+        source.feed(-1, 2, (DataSink) DataSinks.newInMemoryDataSink());
+    }
+
+    private static DataSource part(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return DataSources.asDataSource(ByteBuffer.wrap(bytes));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] array = new byte[buffer.remaining()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+}
@@ -0,0 +1,95 @@
+package at.favre.tools.apksigner.signing;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DigestExecutorTest {
+
+    @Test
+    public void testSingleThreadedRunsOnCaller() {
+        try (DigestExecutor executor = new DigestExecutor(1)) {
+            Thread caller = Thread.currentThread();
+            AtomicInteger runs = new AtomicInteger();
+            executor.execute(() -> () -> {
+                assertEquals(caller, Thread.currentThread());
+                runs.incrementAndGet();
+            });
+            assertEquals(1, runs.get());
+        }
+    }
+
+    @Test
+    public void testUsesIdleHelpers() throws Exception {
+        try (DigestExecutor executor = new DigestExecutor(3)) {
+            CountDownLatch allStarted = new CountDownLatch(3);
+            AtomicInteger runs = new AtomicInteger();
+            executor.execute(() -> () -> {
+                allStarted.countDown();
+                try {
+                    assertTrue(allStarted.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                runs.incrementAndGet();
+            });
+            assertEquals(3, runs.get());
+        }
+    }
+
+    @Test
+    public void testHelpersAreSharedNotOversubscribed() throws Exception {
+        try (DigestExecutor executor = new DigestExecutor(3)) {
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+
+            Runnable job = () -> executor.execute(() -> () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                running.decrementAndGet();
+            });
+            Thread[] callers = new Thread[4];
+            for (int i = 0; i < callers.length; i++) {
+                callers[i] = new Thread(job);
+                callers[i].start();
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Thread caller : callers) {
+                caller.join(10_000);
+            }
+
+            // every caller digests itself, at most 2 helpers join them
+            assertTrue(String.valueOf(maxRunning.get()), maxRunning.get() <= callers.length + 2);
+            assertEquals(0, running.get());
+        }
+    }
+
+    @Test
+    public void testFailureIsRethrown() {
+        try (DigestExecutor executor = new DigestExecutor(2)) {
+            executor.execute(() -> () -> {
+                throw new IllegalStateException("digest failed");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("digest failed", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+        new DigestExecutor(0);
+    }
+}
@@ -0,0 +1,80 @@
+package at.favre.tools.apksigner.signing;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class SignatureProbeTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testUnsignedApks() throws Exception {
+        for (File apk : resourceFolder("test-apks-unsigned").listFiles()) {
+            SignatureProbe.Result result = new SignatureProbe().probe(apk);
+            assertFalse(apk.getName(), result.isSigned());
+        }
+    }
+
+    @Test
+    public void testSignedApks() throws Exception {
+        for (File apk : resourceFolder("test-apks-signed").listFiles()) {
+            SignatureProbe.Result result = new SignatureProbe().probe(apk);
+            assertTrue(apk.getName(), result.isSigned());
+            assertTrue(apk.getName(), result.v1Signature);
+        }
+    }
+
+    @Test
+    public void testSameAsVerifierForSignedApks() throws Exception {
+        for (File apk : resourceFolder("test-apks-signed").listFiles()) {
+            AndroidApkSignerVerify.Result verifyResult = new AndroidApkSignerVerify().verify(apk, null, null, null, false);
+            assertEquals(apk.getName(), verifyResult.v2Schema || verifyResult.v3Schema, new SignatureProbe().probe(apk).signingBlock);
+        }
+    }
+
+    @Test
+    public void testV1OnlyZip() throws Exception {
+        File zip = temporaryFolder.newFile("v1.zip");
+        try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(zip))) {
+            zipOut.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zipOut.putNextEntry(new ZipEntry("META-INF/CERT.SF"));
+            zipOut.putNextEntry(new ZipEntry("META-INF/CERT.RSA"));
+        }
+
+        SignatureProbe.Result result = new SignatureProbe().probe(zip);
+        assertTrue(result.isSigned());
+        assertTrue(result.v1Signature);
+        assertFalse(result.signingBlock);
+    }
+
+    @Test
+    public void testIsV1SignatureEntry() {
+        assertTrue(SignatureProbe.isV1SignatureEntry("META-INF/CERT.SF"));
+        assertTrue(SignatureProbe.isV1SignatureEntry("META-INF/CERT.RSA"));
+        assertTrue(SignatureProbe.isV1SignatureEntry("META-INF/ANDROIDD.EC"));
+        assertTrue(SignatureProbe.isV1SignatureEntry("META-INF/key.dsa"));
+        assertFalse(SignatureProbe.isV1SignatureEntry("META-INF/MANIFEST.MF"));
+        assertFalse(SignatureProbe.isV1SignatureEntry("META-INF/services/x.SF"));
+        assertFalse(SignatureProbe.isV1SignatureEntry("res/CERT.RSA"));
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testNoZip() throws Exception {
+        File noZip = temporaryFolder.newFile("nozip.apk");
+        Files.write(noZip.toPath(), new byte[128]);
+        new SignatureProbe().probe(noZip);
+    }
+
+    private File resourceFolder(String name) throws Exception {
+        return new File(getClass().getClassLoader().getResource(name).toURI().getPath());
+    }
+}
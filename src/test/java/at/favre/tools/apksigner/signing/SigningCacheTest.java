@@ -0,0 +1,129 @@
+package at.favre.tools.apksigner.signing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SigningCacheTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = temporaryFolder.newFolder("cache");
+    }
+
+    @Test
+    public void testKeyDependsOnAllInputs() {
+        String key = SigningCache.createKey("aa", Collections.emptyList(), null, "skipZipAlign=false");
+
+        assertEquals(key, SigningCache.createKey("aa", Collections.emptyList(), null, "skipZipAlign=false"));
+        assertNotEquals(key, SigningCache.createKey("ab", Collections.emptyList(), null, "skipZipAlign=false"));
+        assertNotEquals(key, SigningCache.createKey("aa", Collections.emptyList(), "cc", "skipZipAlign=false"));
+        assertNotEquals(key, SigningCache.createKey("aa", Collections.emptyList(), null, "skipZipAlign=true"));
+    }
+
+    @Test
+    public void testMiss() throws Exception {
+        File out = new File(temporaryFolder.getRoot(), "out.apk");
+        assertFalse(new SigningCache(cacheDir, 1024).restore("abcd", out));
+        assertFalse(out.exists());
+    }
+
+    @Test
+    public void testStoreAndRestore() throws Exception {
+        File signed = createFile("signed.apk", 100);
+        File idsig = createFile("signed.apk.idsig", 10);
+        SigningCache cache = new SigningCache(cacheDir, 1024);
+        cache.store("abcd", signed);
+
+        File out = new File(temporaryFolder.getRoot(), "out.apk");
+        assertTrue(cache.restore("abcd", out));
+        assertArrayEquals(Files.readAllBytes(signed.toPath()), Files.readAllBytes(out.toPath()));
+        assertArrayEquals(Files.readAllBytes(idsig.toPath()), Files.readAllBytes(new File(out.getAbsolutePath() + ".idsig").toPath()));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        SigningCache cache = new SigningCache(cacheDir, 250);
+        cache.store("first", createFile("1.apk", 100));
+        cache.store("second", createFile("2.apk", 100));
+        new File(cacheDir, "first.apk").setLastModified(System.currentTimeMillis() - 60_000);
+        new File(cacheDir, "second.apk").setLastModified(System.currentTimeMillis() - 30_000);
+
+        assertTrue(cache.restore("first", new File(temporaryFolder.getRoot(), "out.apk")));
+        cache.store("third", createFile("3.apk", 100));
+
+        assertTrue(new File(cacheDir, "first.apk").exists());
+        assertFalse(new File(cacheDir, "second.apk").exists());
+        assertTrue(new File(cacheDir, "third.apk").exists());
+    }
+
+    @Test
+    public void testKeepsNewestEntryEvenIfTooLarge() throws Exception {
+        SigningCache cache = new SigningCache(cacheDir, 10);
+        cache.store("big", createFile("big.apk", 100));
+        assertTrue(new File(cacheDir, "big.apk").exists());
+    }
+
+    @Test
+    public void testFailedRestoreLeavesNoIdsig() throws Exception {
+        SigningCache cache = new SigningCache(cacheDir, 1024);
+        createFile("signed.apk.idsig", 10);
+        cache.store("abcd", createFile("signed.apk", 100));
+
+        File idsig = new File(temporaryFolder.getRoot(), "out.apk.idsig");
+        assertFalse(cache.restore("abcd", new File(temporaryFolder.getRoot(), "missing/out.apk"), idsig));
+        assertFalse(idsig.exists());
+    }
+
+    @Test
+    public void testEntryWithoutIdsigIsMissIfIdsigRequested() throws Exception {
+        SigningCache cache = new SigningCache(cacheDir, 1024);
+        cache.store("abcd", createFile("signed.apk", 100));
+
+        File out = new File(temporaryFolder.getRoot(), "out.apk");
+        File idsig = new File(temporaryFolder.getRoot(), "out.apk.idsig");
+        assertFalse(cache.restore("abcd", out, idsig));
+        assertFalse(out.exists());
+        assertFalse(idsig.exists());
+        assertTrue(cache.restore("abcd", out, null));
+        assertTrue(out.exists());
+    }
+
+    @Test
+    public void testEvictDeletesStaleTempFiles() throws Exception {
+        File stale = new File(cacheDir, "tmp-123.part");
+        File fresh = new File(cacheDir, "tmp-456.part");
+        Files.write(stale.toPath(), new byte[100]);
+        Files.write(fresh.toPath(), new byte[100]);
+        stale.setLastModified(System.currentTimeMillis() - SigningCache.TMP_GRACE_PERIOD_MS - 60_000);
+
+        new SigningCache(cacheDir, 1024).store("abcd", createFile("signed.apk", 100));
+
+        assertFalse(stale.exists());
+        assertTrue(fresh.exists());
+        assertTrue(new File(cacheDir, "abcd.apk").exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxSize() {
+        new SigningCache(cacheDir, 0);
+    }
+
+    private File createFile(String name, int length) throws Exception {
+        File file = new File(temporaryFolder.getRoot(), name);
+        byte[] content = new byte[length];
+        content[0] = (byte) name.hashCode();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+}
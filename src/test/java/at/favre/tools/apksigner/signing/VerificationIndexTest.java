@@ -0,0 +1,80 @@
+package at.favre.tools.apksigner.signing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class VerificationIndexTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File apk, indexFile;
+    private AndroidApkSignerVerify.Result result;
+
+    @Before
+    public void setUp() throws Exception {
+        File signedFolder = new File(getClass().getClassLoader().getResource("test-apks-signed").toURI().getPath());
+        apk = new File(temporaryFolder.getRoot(), "signed.apk");
+        Files.copy(signedFolder.listFiles()[0].toPath(), apk.toPath());
+        indexFile = new File(temporaryFolder.getRoot(), "index/verify.idx");
+        result = new AndroidApkSignerVerify().verify(apk, null, null, null, false);
+    }
+
+    @Test
+    public void testStoreAndLoad() throws Exception {
+        VerificationIndex index = new VerificationIndex(indexFile, "1.0", false);
+        assertNull(index.get(apk, "aa"));
+        index.put(apk, "aa", result);
+        index.save();
+
+        AndroidApkSignerVerify.Result loaded = new VerificationIndex(indexFile, "1.0", false).get(apk, "aa");
+        assertNotNull(loaded);
+        assertEquals(result.verified, loaded.verified);
+        assertEquals(result.getSchemaVersionInfoString(), loaded.getSchemaVersionInfoString());
+        assertEquals(result.errors, loaded.errors);
+        assertEquals(result.warnings, loaded.warnings);
+        assertEquals(result.certInfoList.size(), loaded.certInfoList.size());
+        assertEquals(result.certInfoList.get(0).getCertSha256(), loaded.certInfoList.get(0).getCertSha256());
+        assertEquals(result.certInfoList.get(0).getSubjectDn(), loaded.certInfoList.get(0).getSubjectDn());
+        assertEquals(result.certInfoList.get(0).getExpiry(), loaded.certInfoList.get(0).getExpiry());
+        assertEquals(result.certInfoList.get(0).getPubKeysize(), loaded.certInfoList.get(0).getPubKeysize());
+    }
+
+    @Test
+    public void testChangedFileMisses() throws Exception {
+        VerificationIndex index = new VerificationIndex(indexFile, "1.0", false);
+        index.put(apk, "aa", result);
+
+        assertNull(index.get(apk, "ab"));
+        apk.setLastModified(apk.lastModified() - 60_000);
+        assertNull(index.get(apk, "aa"));
+    }
+
+    @Test
+    public void testOtherVersionOrReverifyMisses() throws Exception {
+        VerificationIndex index = new VerificationIndex(indexFile, "1.0", false);
+        index.put(apk, "aa", result);
+        index.save();
+
+        assertNull(new VerificationIndex(indexFile, "1.1", false).get(apk, "aa"));
+        assertNull(new VerificationIndex(indexFile, "1.0", true).get(apk, "aa"));
+        assertEquals(1, new VerificationIndex(indexFile, "1.0", true).size());
+    }
+
+    @Test
+    public void testRemovesDeletedFilesAndIgnoresCorruptIndex() throws Exception {
+        VerificationIndex index = new VerificationIndex(indexFile, "1.0", false);
+        index.put(apk, "aa", result);
+        assertTrue(apk.delete());
+        index.save();
+        assertEquals(0, new VerificationIndex(indexFile, "1.0", false).size());
+
+        Files.write(indexFile.toPath(), new byte[]{0, 0, 0, 1, 0});
+        assertEquals(0, new VerificationIndex(indexFile, "1.0", false).size());
+    }
+}
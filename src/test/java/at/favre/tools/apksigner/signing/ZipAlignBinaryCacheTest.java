@@ -0,0 +1,97 @@
+package at.favre.tools.apksigner.signing;
+
+import at.favre.tools.apksigner.util.CmdUtil;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ZipAlignBinaryCacheTest {
+    private static final String EXECUTABLE = "linux-zipalign-33_0_2";
+    private static final String LIB = "binary-lib/linux-lib64-33_0_2/libc++.so";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File cacheRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheRoot = temporaryFolder.newFolder("cache");
+    }
+
+    @Test
+    public void testExtractOnceAndReuse() throws Exception {
+        File executable = extract();
+
+        assertTrue(executable.getParentFile().getName().startsWith("zipalign-"));
+        assertArrayEquals(readResource(EXECUTABLE), Files.readAllBytes(executable.toPath()));
+        File lib = new File(executable.getParentFile(), "lib64/libc++.so");
+        assertArrayEquals(readResource(LIB), Files.readAllBytes(lib.toPath()));
+
+        executable.setLastModified(1_000_000L);
+        assertEquals(executable, extract());
+        assertEquals(1_000_000L, executable.lastModified());
+    }
+
+    @Test
+    public void testTamperedFileIsReplaced() throws Exception {
+        File executable = extract();
+        Files.write(executable.toPath(), new byte[]{1, 2, 3});
+
+        assertEquals(executable, extract());
+        assertArrayEquals(readResource(EXECUTABLE), Files.readAllBytes(executable.toPath()));
+    }
+
+    @Test
+    public void testExecutablePermission() throws Exception {
+        Assume.assumeTrue(CmdUtil.getOsType() != CmdUtil.OS.WIN);
+        File executable = new ZipAlignBinaryCache(cacheRoot).extract(EXECUTABLE, Collections.singletonList(LIB), "lib64", true);
+        assertTrue(executable.canExecute());
+    }
+
+    @Test
+    public void testConcurrentExtract() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<File>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(pool.submit(this::extract));
+            }
+            for (Future<File> future : futures) {
+                assertArrayEquals(readResource(EXECUTABLE), Files.readAllBytes(future.get().toPath()));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, cacheRoot.listFiles(File::isDirectory).length);
+    }
+
+    private File extract() throws Exception {
+        return new ZipAlignBinaryCache(cacheRoot).extract(EXECUTABLE, Collections.singletonList(LIB), "lib64", false);
+    }
+
+    private byte[] readResource(String resource) throws Exception {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(resource)) {
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
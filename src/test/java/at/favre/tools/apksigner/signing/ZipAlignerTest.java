@@ -0,0 +1,196 @@
+package at.favre.tools.apksigner.signing;
+
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ZipAlignerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File unalignedZip;
+
+    @Before
+    public void setUp() throws Exception {
+        unalignedZip = temporaryFolder.newFile("unaligned.zip");
+
+        try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(unalignedZip))) {
+            addEntry(zipOut, "a", new byte[]{1, 2, 3}, ZipEntry.STORED);
+            addEntry(zipOut, "deflated.txt", "some text some text some text".getBytes(), ZipEntry.DEFLATED);
+            addEntry(zipOut, "res/raw/odd_name.bin", new byte[]{4, 5, 6, 7, 8}, ZipEntry.STORED);
+            addEntry(zipOut, "lib/arm64-v8a/libtest.so", new byte[1234], ZipEntry.STORED);
+            addEntry(zipOut, "xy", new byte[]{9}, ZipEntry.STORED);
+        }
+    }
+
+    @Test
+    public void testAlign() throws Exception {
+        assertFalse(new ZipAligner().isAligned(unalignedZip));
+
+        File out = temporaryFolder.newFile("aligned.zip");
+        ZipAligner.Result result = new ZipAligner().align(unalignedZip, out);
+
+        assertEquals(5, result.entries);
+        assertEquals(4, result.alignedEntries);
+        assertTrue(new ZipAligner().isAligned(out));
+        assertEntryAlignment(out);
+        assertSameContent(unalignedZip, out);
+    }
+
+    @Test
+    public void testAlignTwiceIsStable() throws Exception {
+        File out1 = temporaryFolder.newFile("aligned1.zip");
+        File out2 = temporaryFolder.newFile("aligned2.zip");
+        new ZipAligner().align(unalignedZip, out1);
+        new ZipAligner().align(out1, out2);
+
+        assertArrayEquals(Files.readAllBytes(out1.toPath()), Files.readAllBytes(out2.toPath()));
+    }
+
+    @Test
+    public void testAlignInMemoryEqualsFile() throws Exception {
+        File out = temporaryFolder.newFile("aligned.zip");
+        new ZipAligner().align(unalignedZip, out);
+
+        DataSource aligned = new ZipAligner().align(DataSources.asDataSource(ByteBuffer.wrap(Files.readAllBytes(unalignedZip.toPath()))));
+        ByteBuffer alignedBytes = aligned.getByteBuffer(0, (int) aligned.size());
+        byte[] alignedArray = new byte[alignedBytes.remaining()];
+        alignedBytes.get(alignedArray);
+
+        assertArrayEquals(Files.readAllBytes(out.toPath()), alignedArray);
+        assertTrue(new ZipAligner().verify(aligned, true).isAligned());
+        assertFalse(new ZipAligner().verify(DataSources.asDataSource(ByteBuffer.wrap(Files.readAllBytes(unalignedZip.toPath()))), false).isAligned());
+    }
+
+    @Test
+    public void testAlignApk() throws Exception {
+        File apk = new File(getClass().getClassLoader().getResource("test-apks-unsigned/app-first-release-unsigned.apk").toURI().getPath());
+        File out = temporaryFolder.newFile("aligned.apk");
+        new ZipAligner().align(apk, out);
+
+        assertTrue(new ZipAligner().isAligned(out));
+        assertEntryAlignment(out);
+        assertSameContent(apk, out);
+    }
+
+    @Test
+    public void testVerifyReportsMisalignedEntries() throws Exception {
+        ZipAligner.VerifyResult result = new ZipAligner().verify(unalignedZip, true);
+
+        assertFalse(result.isAligned());
+        assertEquals(5, result.entries);
+        assertEquals(4, result.storedEntries);
+        assertFalse(result.misalignedEntries.isEmpty());
+        for (ZipAligner.MisalignedEntry entry : result.misalignedEntries) {
+            assertNotEquals(0, entry.dataOffset % entry.requiredAlignment);
+            assertEquals(entry.name.endsWith(".so") ? ZipAligner.PAGE_ALIGNMENT : ZipAligner.ALIGNMENT, entry.requiredAlignment);
+        }
+    }
+
+    @Test
+    public void testVerifyAlignedZip() throws Exception {
+        File out = temporaryFolder.newFile("aligned.zip");
+        new ZipAligner().align(unalignedZip, out);
+
+        assertTrue(new ZipAligner().verify(out, false).isAligned());
+        assertTrue(new ZipAligner().verify(out, true).isAligned());
+    }
+
+    @Test
+    public void testVerifySignedApks() throws Exception {
+        for (File apk : new File(getClass().getClassLoader().getResource("test-apks-signed").toURI().getPath()).listFiles()) {
+            ZipAligner.VerifyResult result = new ZipAligner().verify(apk, false);
+            assertEquals(apk.getName(), result.isAligned(), new ZipAligner().isAligned(apk));
+        }
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testNoZip() throws Exception {
+        File noZip = temporaryFolder.newFile("nozip.apk");
+        Files.write(noZip.toPath(), new byte[128]);
+        new ZipAligner().align(noZip, temporaryFolder.newFile("out.apk"));
+    }
+
+    @Test
+    public void testStripAlignmentPadding() {
+        assertArrayEquals(new byte[0], ZipAligner.stripAlignmentPadding(new byte[0]));
+        assertArrayEquals(new byte[0], ZipAligner.stripAlignmentPadding(new byte[7]));
+        assertArrayEquals(new byte[0], ZipAligner.stripAlignmentPadding(new byte[]{0x35, (byte) 0xd9, 2, 0, 4, 0}));
+        byte[] otherField = new byte[]{0x01, 0x02, 1, 0, 9};
+        assertArrayEquals(otherField, ZipAligner.stripAlignmentPadding(otherField));
+    }
+
+    private static void assertEntryAlignment(File zip) throws Exception {
+        try (FileChannel in = FileChannel.open(zip.toPath(), StandardOpenOption.READ)) {
+            List<ZipAligner.CentralDirectoryEntry> entries = ZipAligner.CentralDirectoryEntry.readAll(in, ZipAligner.EndOfCentralDirectory.read(in));
+            for (ZipAligner.CentralDirectoryEntry entry : entries) {
+                if (entry.method == ZipAligner.METHOD_STORED) {
+                    java.nio.ByteBuffer lfh = ZipAligner.readFully(in, entry.localHeaderOffset, ZipAligner.LFH_SIZE);
+                    long dataOffset = entry.localHeaderOffset + ZipAligner.LFH_SIZE + (lfh.getShort(26) & 0xffff) + (lfh.getShort(28) & 0xffff);
+                    assertEquals(entry.name, 0, dataOffset % ZipAligner.requiredAlignment(entry));
+                }
+            }
+        }
+    }
+
+    private static void assertSameContent(File expected, File actual) throws Exception {
+        try (ZipFile expectedZip = new ZipFile(expected); ZipFile actualZip = new ZipFile(actual)) {
+            assertEquals(expectedZip.size(), actualZip.size());
+            Enumeration<? extends ZipEntry> entries = expectedZip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry expectedEntry = entries.nextElement();
+                ZipEntry actualEntry = actualZip.getEntry(expectedEntry.getName());
+                assertNotNull(actualEntry);
+                assertEquals(expectedEntry.getMethod(), actualEntry.getMethod());
+                assertEquals(expectedEntry.getCompressedSize(), actualEntry.getCompressedSize());
+                assertTrue(Arrays.equals(readAll(expectedZip, expectedEntry), readAll(actualZip, actualEntry)));
+            }
+        }
+    }
+
+    private static byte[] readAll(ZipFile zipFile, ZipEntry entry) throws Exception {
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void addEntry(ZipOutputStream zipOut, String name, byte[] content, int method) throws Exception {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        zipOut.putNextEntry(entry);
+        zipOut.write(content);
+        zipOut.closeEntry();
+    }
+}
@@ -6,7 +6,11 @@ import org.junit.Test;
 import java.util.Collections;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class CLIParserTest {
     @Test
@@ -98,6 +102,181 @@ public class CLIParserTest {
         assertEquals(expectedArg, parsedArg);
     }
 
+    @Test
+    public void testWithZipAlignExternal() {
+        Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_ZIPALIGN_EXTERNAL));
+        Arg expectedArg = new Arg(new String[]{"./"}, null, Collections.emptyList(), false, false, false, false, false, false, null, false, false, null, null);
+        expectedArg.zipAlignExternal = true;
+        assertEquals(expectedArg, parsedArg);
+    }
+
+    @Test
+    public void testWithZipAlignPathImpliesExternal() {
+        Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --zipAlignPath /sdk/zipalign"));
+        Arg expectedArg = new Arg(new String[]{"./"}, null, Collections.emptyList(), false, false, false, false, false, false, "/sdk/zipalign", false, false, null, null);
+        expectedArg.zipAlignExternal = true;
+        assertEquals(expectedArg, parsedArg);
+    }
+
+    @Test
+    public void testWithThreads() {
+        Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_THREADS + " 4"));
+        Arg expectedArg = new Arg(new String[]{"./"}, null, Collections.emptyList(), false, false, false, false, false, false, null, false, false, null, null);
+        expectedArg.threads = 4;
+        assertEquals(expectedArg, parsedArg);
+    }
+
+    @Test
+    public void testWithSigningCache() {
+        Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_CACHE_DIR + " ./cache --" + CLIParser.ARG_CACHE_MAX_SIZE + " 512"));
+        Arg expectedArg = new Arg(new String[]{"./"}, null, Collections.emptyList(), false, false, false, false, false, false, null, false, false, null, null);
+        expectedArg.cacheDir = "./cache";
+        expectedArg.cacheMaxSizeMb = 512;
+        assertEquals(expectedArg, parsedArg);
+    }
+
+    @Test
+    public void testWithInvalidCacheSize() {
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_CACHE_MAX_SIZE + " 0")));
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_CACHE_MAX_SIZE + " big")));
+    }
+
+    @Test
+    public void testWithProcessTimeout() {
+        Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_PROCESS_TIMEOUT + " 30"));
+        Arg expectedArg = new Arg(new String[]{"./"}, null, Collections.emptyList(), false, false, false, false, false, false, null, false, false, null, null);
+        expectedArg.processTimeoutSec = 30;
+        assertEquals(expectedArg, parsedArg);
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_PROCESS_TIMEOUT + " 0")));
+    }
+
+    @Test
+    public void testWithDigestThreads() {
+        Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_THREADS + " 4 --" + CLIParser.ARG_DIGEST_THREADS + " 1"));
+        Arg expectedArg = new Arg(new String[]{"./"}, null, Collections.emptyList(), false, false, false, false, false, false, null, false, false, null, null);
+        expectedArg.threads = 4;
+        expectedArg.digestThreads = 1;
+        assertEquals(expectedArg, parsedArg);
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_DIGEST_THREADS + " 0")));
+    }
+
+    @Test
+    public void testWithInMemoryMaxSize() {
+        Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_IN_MEMORY_MAX_SIZE + " 30"));
+        Arg expectedArg = new Arg(new String[]{"./"}, null, Collections.emptyList(), false, false, false, false, false, false, null, false, false, null, null);
+        expectedArg.inMemoryMaxSizeMb = 30;
+        assertEquals(expectedArg, parsedArg);
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_IN_MEMORY_MAX_SIZE + " 1025")));
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_IN_MEMORY_MAX_SIZE + " 30 --" + CLIParser.ARG_VERIFY)));
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_IN_MEMORY_MAX_SIZE + " 30 --" + CLIParser.ARG_ZIPALIGN_EXTERNAL)));
+    }
+
+    @Test
+    public void testWithDiscoveryOptions() {
+        Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_MAX_DEPTH + " 3 --"
+                + CLIParser.ARG_INCLUDE + " release/** *.apk --" + CLIParser.ARG_EXCLUDE + " tmp"));
+        Arg expectedArg = new Arg(new String[]{"./"}, null, Collections.emptyList(), false, false, false, false, false, false, null, false, false, null, null);
+        expectedArg.maxDepth = 3;
+        expectedArg.includeGlobs = new String[]{"release/**", "*.apk"};
+        expectedArg.excludeGlobs = new String[]{"tmp"};
+        assertEquals(expectedArg, parsedArg);
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_MAX_DEPTH + " 0")));
+    }
+
+    @Test
+    public void testVerifyIndex() {
+        Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_VERIFY + " --" + CLIParser.ARG_VERIFY_INDEX
+                + " ./verify.idx --" + CLIParser.ARG_FORCE_VERIFY));
+        assertNotNull(parsedArg);
+        assertEquals("./verify.idx", parsedArg.verifyIndex);
+        assertTrue(parsedArg.forceVerify);
+
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_VERIFY_INDEX + " ./verify.idx")));
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_VERIFY + " --" + CLIParser.ARG_FORCE_VERIFY)));
+    }
+
+    @Test
+    public void testSchemeToggles() {
+        Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_V1 + " false --" + CLIParser.ARG_V4
+                + " FALSE --" + CLIParser.ARG_MIN_SDK + " 24"));
+        Arg expectedArg = new Arg(new String[]{"./"}, null, Collections.emptyList(), false, false, false, false, false, false, null, false, false, null, null);
+        expectedArg.v1SigningEnabled = false;
+        expectedArg.v4SigningEnabled = false;
+        expectedArg.minSdkVersion = 24;
+        assertEquals(expectedArg, parsedArg);
+
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_V1 + " no")));
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_V1 + " false --" + CLIParser.ARG_V2
+                + " false --" + CLIParser.ARG_V3 + " false")));
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_V4 + " true --" + CLIParser.ARG_V2 + " false --"
+                + CLIParser.ARG_V3 + " false")));
+    }
+
+    @Test
+    public void testV4IsOptIn() {
+        Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_V4 + " true --" + CLIParser.ARG_IDSIG_OUT + " ./idsig"));
+        Arg expectedArg = new Arg(new String[]{"./"}, null, Collections.emptyList(), false, false, false, false, false, false, null, false, false, null, null);
+        assertFalse(expectedArg.v4SigningEnabled);
+        expectedArg.v4SigningEnabled = true;
+        expectedArg.idsigOut = "./idsig";
+        assertEquals(expectedArg, parsedArg);
+
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_IDSIG_OUT + " ./idsig")));
+    }
+
+    @Test
+    public void testDaemon() {
+        Arg parsedArg = CLIParser.parse(asArgArray("--" + CLIParser.ARG_DAEMON + " --" + CLIParser.ARG_DAEMON_FILE + " ./daemon"));
+        assertNotNull(parsedArg);
+        assertTrue(parsedArg.daemon);
+        assertEquals("./daemon", parsedArg.daemonFile);
+        assertNull(parsedArg.apkFile);
+    }
+
+    @Test
+    public void testDaemonAndApksAreExclusive() {
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_DAEMON)));
+    }
+
+    @Test
+    public void testWatch() {
+        Arg parsedArg = CLIParser.parse(asArgArray("--" + CLIParser.ARG_WATCH + " ./in -" + CLIParser.ARG_APK_OUT + " ./out"));
+        assertNotNull(parsedArg);
+        assertEquals("./in", parsedArg.watchDir);
+        assertNull(parsedArg.apkFile);
+
+        Arg copy = parsedArg.copy();
+        assertEquals(parsedArg, copy);
+        assertNotSame(parsedArg, copy);
+    }
+
+    @Test
+    public void testWatchOutMustNotBeInWatchFolder() {
+        assertNull(CLIParser.parse(asArgArray("--" + CLIParser.ARG_WATCH + " ./in -" + CLIParser.ARG_APK_OUT + " ./in")));
+        assertNull(CLIParser.parse(asArgArray("--" + CLIParser.ARG_WATCH + " ./in -" + CLIParser.ARG_APK_OUT + " in/signed")));
+        assertNotNull(CLIParser.parse(asArgArray("--" + CLIParser.ARG_WATCH + " ./in -" + CLIParser.ARG_APK_OUT + " ./in-signed")));
+    }
+
+    @Test
+    public void testWatchRequiresOut() {
+        assertNull(CLIParser.parse(asArgArray("--" + CLIParser.ARG_WATCH + " ./in")));
+        assertNull(CLIParser.parse(asArgArray("--" + CLIParser.ARG_WATCH + " ./in -" + CLIParser.ARG_APK_OUT + " ./out --" + CLIParser.ARG_VERIFY)));
+        assertNull(CLIParser.parse(asArgArray("--" + CLIParser.ARG_WATCH + " ./in -" + CLIParser.ARG_APK_FILE + " ./ -" + CLIParser.ARG_APK_OUT + " ./out")));
+    }
+
+    @Test
+    public void testOutputFormat() {
+        assertEquals(Arg.OutputFormat.TEXT, CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + " ./")).outputFormat);
+        assertEquals(Arg.OutputFormat.NDJSON, CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + " ./ --" + CLIParser.ARG_OUTPUT_FORMAT + " ndjson")).outputFormat);
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + " ./ --" + CLIParser.ARG_OUTPUT_FORMAT + " xml")));
+    }
+
+    @Test
+    public void testWithInvalidThreads() {
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_THREADS + " 0")));
+        assertNull(CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + "./ --" + CLIParser.ARG_THREADS + " many")));
+    }
+
     @Test
     public void testMultipleFiles() {
         Arg parsedArg = CLIParser.parse(asArgArray("-" + CLIParser.ARG_APK_FILE + " ./ apk1.apk apk2.apk"));
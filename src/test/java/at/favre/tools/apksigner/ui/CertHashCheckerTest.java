@@ -64,9 +64,12 @@ public class CertHashCheckerTest {
     private static AndroidApkSignerVerify.Result getVerifyResult(String... shas256) {
         List<AndroidApkSignerVerify.CertInfo> certInfos = new ArrayList<>();
         for (String s : shas256) {
-            AndroidApkSignerVerify.CertInfo info = new AndroidApkSignerVerify.CertInfo();
-            info.certSha256 = s;
-            certInfos.add(info);
+            certInfos.add(new AndroidApkSignerVerify.CertInfo(null, new byte[0]) {
+                @Override
+                public String getCertSha256() {
+                    return s;
+                }
+            });
         }
 
         return new AndroidApkSignerVerify.Result(true, null, null, null, true, true, true, true, true, certInfos);
@@ -1,17 +1,24 @@
 package at.favre.tools.apksigner.ui;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import static junit.framework.TestCase.assertEquals;
 
 public class FileArgParserTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     File signedFolder, unsignedFolder;
     List<File> sortedSinged, sortedUnsinged;
     private String extFilter = "apk";
@@ -104,4 +111,69 @@ public class FileArgParserTest {
         List<File> result = new FileArgParser().parseAndSortUniqueFilesNonRecursive(new String[]{signedFolder.getAbsolutePath()}, "unk");
         assertEquals(Collections.emptyList(), result);
     }
+
+    @Test
+    public void testDiscoverRecursiveWithMaxDepth() throws Exception {
+        File root = createTree();
+
+        assertEquals(Arrays.asList("a.apk", "b.apk"), discover(root, 1, null, null));
+        assertEquals(Arrays.asList("a.apk", "b.apk", "debug/d.apk", "release/r-unsigned.apk", "release/r.apk"), discover(root, 2, null, null));
+        assertEquals(Arrays.asList("a.apk", "b.apk", "debug/d.apk", "release/r-unsigned.apk", "release/r.apk", "release/sub/s.apk"), discover(root, Integer.MAX_VALUE, null, null));
+    }
+
+    @Test
+    public void testDiscoverWithGlobs() throws Exception {
+        File root = createTree();
+
+        assertEquals(Arrays.asList("release/r-unsigned.apk", "release/r.apk", "release/sub/s.apk"), discover(root, 10, Collections.singletonList("release/**"), null));
+        assertEquals(Collections.singletonList("release/r-unsigned.apk"), discover(root, 10, Collections.singletonList("*-unsigned.apk"), null));
+        assertEquals(Arrays.asList("a.apk", "b.apk", "release/r-unsigned.apk", "release/r.apk"), discover(root, 10, null, Arrays.asList("debug", "sub")));
+        assertEquals(Arrays.asList("a.apk", "b.apk", "debug/d.apk", "release/r.apk", "release/sub/s.apk"), discover(root, 10, null, Collections.singletonList("*-unsigned.apk")));
+    }
+
+    @Test
+    public void testDiscoverDeduplicates() throws Exception {
+        File root = createTree();
+        File apk = new File(root, "a.apk");
+
+        Iterator<File> files = new FileArgParser().discover(new String[]{apk.getAbsolutePath(), root.getAbsolutePath(),
+                new File(root, "debug/../a.apk").getPath()}, extFilter, 1, null, null);
+        List<File> result = new ArrayList<>();
+        files.forEachRemaining(result::add);
+        assertEquals(Arrays.asList(apk, new File(root, "b.apk")), result);
+    }
+
+    @Test
+    public void testRelativeFolder() throws Exception {
+        File root = createTree();
+        String[] args = new String[]{root.getAbsolutePath(), new File(root, "b.apk").getAbsolutePath()};
+
+        assertEquals("", FileArgParser.relativeFolder(new File(root, "a.apk"), args));
+        assertEquals("release" + File.separator + "sub", FileArgParser.relativeFolder(new File(root, "release/sub/s.apk"), args));
+        assertEquals("", FileArgParser.relativeFolder(new File(root, "release/r.apk"), new String[]{new File(root, "release/r.apk").getAbsolutePath()}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDiscoverNotExisting() throws Exception {
+        new FileArgParser().discover(new String[]{new File(temporaryFolder.getRoot(), "missing").getAbsolutePath()}, extFilter, 1, null, null);
+    }
+
+    private File createTree() throws Exception {
+        File root = temporaryFolder.newFolder("apks");
+        for (String path : new String[]{"a.apk", "b.apk", "readme.txt", "debug/d.apk", "release/r.apk", "release/r-unsigned.apk", "release/sub/s.apk"}) {
+            File file = new File(root, path);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), new byte[]{1});
+        }
+        return root;
+    }
+
+    private static List<String> discover(File root, int maxDepth, List<String> includes, List<String> excludes) {
+        Iterator<File> files = new FileArgParser().discover(new String[]{root.getAbsolutePath()}, "apk", maxDepth, includes, excludes);
+        List<String> relativePaths = new ArrayList<>();
+        while (files.hasNext()) {
+            relativePaths.add(root.toPath().relativize(files.next().toPath()).toString().replace(File.separatorChar, '/'));
+        }
+        return relativePaths;
+    }
 }
@@ -0,0 +1,94 @@
+package at.favre.tools.apksigner.ui;
+
+import at.favre.tools.apksigner.signing.SigningConfig;
+import at.favre.tools.apksigner.signing.SigningConfigGen;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class SigningConfigGenTest {
+    private File testReleaseKs, testDebugKeystore;
+
+    @Before
+    public void setUp() throws Exception {
+        testReleaseKs = new File(getClass().getClassLoader().getResource("test-release-key.jks").toURI().getPath());
+        testDebugKeystore = new File(getClass().getClassLoader().getResource("test-debug.jks").toURI().getPath());
+    }
+
+    @Test
+    public void testReleaseKeyIsLoaded() {
+        SigningConfigGen gen = new SigningConfigGen(Collections.singletonList(new Arg.SignArgs(0, testReleaseKs.getAbsolutePath(), "app", "password", "keypass")), false);
+        assertEquals(1, gen.signingConfig.size());
+        assertNotNull(gen.signingConfig.get(0).privateKey);
+        assertFalse(gen.signingConfig.get(0).certificateChain.isEmpty());
+    }
+
+    @Test
+    public void testMultipleKeysAreLoaded() {
+        List<Arg.SignArgs> signArgs = Arrays.asList(
+                new Arg.SignArgs(1, testReleaseKs.getAbsolutePath(), "app", "password", "keypass"),
+                new Arg.SignArgs(2, testDebugKeystore.getAbsolutePath(), "androiddebugkey", "android", "android"));
+        SigningConfigGen gen = new SigningConfigGen(signArgs, false);
+        assertEquals(2, gen.signingConfig.size());
+        for (SigningConfig signingConfig : gen.signingConfig) {
+            assertNotNull(signingConfig.privateKey);
+            assertFalse(signingConfig.certificateChain.isEmpty());
+        }
+    }
+
+    @Test
+    public void testDebugKeyIsLoaded() {
+        SigningConfigGen gen = new SigningConfigGen(Collections.singletonList(new Arg.SignArgs(0, testDebugKeystore.getAbsolutePath(), null, null, null)), true);
+        assertTrue(gen.signingConfig.get(0).isDebugType);
+        assertNotNull(gen.signingConfig.get(0).privateKey);
+        gen.cleanUp();
+    }
+
+    @Test
+    public void testSharedKeyStoreCache() {
+        Map<String, KeyStore> cache = new ConcurrentHashMap<>();
+        List<Arg.SignArgs> signArgs = Collections.singletonList(new Arg.SignArgs(0, testReleaseKs.getAbsolutePath(), "app", "password", "keypass"));
+        new SigningConfigGen(signArgs, false, cache);
+        assertEquals(1, cache.size());
+        KeyStore loaded = cache.values().iterator().next();
+
+        new SigningConfigGen(signArgs, false, cache);
+        assertEquals(1, cache.size());
+        assertSame(loaded, cache.values().iterator().next());
+    }
+
+    @Test
+    public void testSharedKeyStoreCacheChecksPassword() {
+        Map<String, KeyStore> cache = new ConcurrentHashMap<>();
+        new SigningConfigGen(Collections.singletonList(new Arg.SignArgs(0, testReleaseKs.getAbsolutePath(), "app", "password", "keypass")), false, cache);
+        try {
+            new SigningConfigGen(Collections.singletonList(new Arg.SignArgs(0, testReleaseKs.getAbsolutePath(), "app", "wrong", "keypass")), false, cache);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongAlias() {
+        new SigningConfigGen(Collections.singletonList(new Arg.SignArgs(0, testReleaseKs.getAbsolutePath(), "unknown", "password", "keypass")), false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongKeystorePassword() {
+        new SigningConfigGen(Collections.singletonList(new Arg.SignArgs(0, testReleaseKs.getAbsolutePath(), "app", "wrong", "keypass")), false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongKeyPassword() {
+        new SigningConfigGen(Collections.singletonList(new Arg.SignArgs(0, testReleaseKs.getAbsolutePath(), "app", "password", "wrong")), false);
+    }
+}
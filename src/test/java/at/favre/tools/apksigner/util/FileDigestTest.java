@@ -0,0 +1,110 @@
+package at.favre.tools.apksigner.util;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FileDigestTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        testDigests(0);
+    }
+
+    @Test
+    public void testSmallFile() throws Exception {
+        testDigests(17);
+    }
+
+    @Test
+    public void testFileLargerThanBuffer() throws Exception {
+        testDigests(FileDigest.BUFFER_SIZE * 2 + 31);
+    }
+
+    @Test
+    public void testSameAsCreateChecksum() throws Exception {
+        File file = createFile(4096);
+        assertEquals(FileUtil.createChecksum(file, FileDigest.SHA256), FileDigest.create(file, FileDigest.SHA256).sha256());
+    }
+
+    @Test
+    public void testInMemoryContent() throws Exception {
+        File file = createFile(4096);
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        FileDigest.Cache cache = new FileDigest.Cache(FileDigest.SHA256);
+        FileDigest digest = cache.get(file, content);
+
+        assertEquals(FileDigest.create(file, FileDigest.SHA256).sha256(), digest.sha256());
+        assertEquals(4096, content.remaining());
+        assertTrue(digest.isUpToDate(file));
+        assertSame(digest, cache.get(file));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotComputedAlgorithm() throws Exception {
+        FileDigest.create(createFile(8), FileDigest.SHA256).get(FileDigest.SHA1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownAlgorithm() throws Exception {
+        FileDigest.create(createFile(8), "NOT-A-HASH");
+    }
+
+    @Test
+    public void testCacheReusesDigest() throws Exception {
+        File file = createFile(1024);
+        FileDigest.Cache cache = new FileDigest.Cache(FileDigest.SHA256);
+        FileDigest first = cache.get(file);
+        assertSame(first, cache.get(file));
+        assertSame(first, cache.get(new File(file.getParentFile(), "./" + file.getName())));
+    }
+
+    @Test
+    public void testCacheDetectsChangedFile() throws Exception {
+        File file = createFile(1024);
+        FileDigest.Cache cache = new FileDigest.Cache(FileDigest.SHA256);
+        FileDigest first = cache.get(file);
+
+        Files.write(file.toPath(), new byte[2048]);
+        FileDigest second = cache.get(file);
+        assertNotSame(first, second);
+        assertNotEquals(first.sha256(), second.sha256());
+        assertEquals(sha(FileDigest.SHA256, new byte[2048]), second.sha256());
+    }
+
+    private void testDigests(int length) throws Exception {
+        File file = createFile(length);
+        byte[] content = Files.readAllBytes(file.toPath());
+
+        FileDigest digest = FileDigest.create(file, FileDigest.SHA1, FileDigest.SHA256, FileDigest.SHA512);
+
+        assertEquals(length, digest.size);
+        assertTrue(digest.isUpToDate(file));
+        assertEquals(sha(FileDigest.SHA1, content), digest.get(FileDigest.SHA1));
+        assertEquals(sha(FileDigest.SHA256, content), digest.sha256());
+        assertEquals(sha(FileDigest.SHA512, content), digest.get(FileDigest.SHA512));
+    }
+
+    private File createFile(int length) throws Exception {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static String sha(String algorithm, byte[] content) throws Exception {
+        return Bytes.wrap(MessageDigest.getInstance(algorithm).digest(content)).encodeHex();
+    }
+}
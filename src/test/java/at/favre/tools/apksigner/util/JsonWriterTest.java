@@ -0,0 +1,34 @@
+package at.favre.tools.apksigner.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonWriterTest {
+
+    @Test
+    public void testCompact() {
+        String json = new JsonWriter(false).beginObject()
+                .name("s").value("a\"b\\c\nd\u0001")
+                .name("l").value(42)
+                .name("d").value(1.5)
+                .name("round").value(2.0)
+                .name("nan").value(Double.NaN)
+                .name("b").value(true)
+                .name("n").nullValue()
+                .name("arr").beginArray().value(1).beginObject().endObject().beginArray().endArray().endArray()
+                .endObject().toString();
+
+        assertEquals("{\"s\":\"a\\\"b\\\\c\\nd\\u0001\",\"l\":42,\"d\":1.5,\"round\":2,\"nan\":null,\"b\":true,\"n\":null,\"arr\":[1,{},[]]}", json);
+    }
+
+    @Test
+    public void testPretty() {
+        String json = new JsonWriter(true).beginObject()
+                .name("a").value(1)
+                .name("b").beginArray().value("x").endArray()
+                .endObject().toString();
+
+        assertEquals("{\n  \"a\": 1,\n  \"b\": [\n    \"x\"\n  ]\n}", json);
+    }
+}
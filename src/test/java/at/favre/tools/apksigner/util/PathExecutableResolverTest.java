@@ -0,0 +1,78 @@
+package at.favre.tools.apksigner.util;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class PathExecutableResolverTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File dir1, dir2, cacheFile;
+    private String path;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(CmdUtil.getOsType() != CmdUtil.OS.WIN);
+        dir1 = temporaryFolder.newFolder("bin1");
+        dir2 = temporaryFolder.newFolder("bin2");
+        cacheFile = new File(temporaryFolder.getRoot(), "cache/path-lookup.properties");
+        path = dir1.getAbsolutePath() + File.pathSeparator + new File(temporaryFolder.getRoot(), "missing").getAbsolutePath() + File.pathSeparator + dir2.getAbsolutePath();
+    }
+
+    @Test
+    public void testExactExecutableMatch() throws Exception {
+        createFile(dir1, "zipalign-old", true);
+        createFile(dir1, "zipalign", false);
+        File expected = createFile(dir2, "zipalign", true);
+
+        assertEquals(expected, new PathExecutableResolver(null).resolve("zipalign", path, false));
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        createFile(dir1, "my-zipalign", true);
+        assertNull(new PathExecutableResolver(cacheFile).resolve("zipalign", path, false));
+        assertNull(new PathExecutableResolver(cacheFile).resolve("zipalign", null, false));
+    }
+
+    @Test
+    public void testMemoizedUntilPathFolderChanges() throws Exception {
+        File inDir2 = createFile(dir2, "zipalign", true);
+        PathExecutableResolver resolver = new PathExecutableResolver(cacheFile);
+        assertEquals(inDir2, resolver.resolve("zipalign", path, false));
+        assertTrue(cacheFile.isFile());
+
+        long dir1Modified = dir1.lastModified();
+        File inDir1 = createFile(dir1, "zipalign", true);
+        dir1.setLastModified(dir1Modified);
+        assertEquals("memoized result expected", inDir2, new PathExecutableResolver(cacheFile).resolve("zipalign", path, false));
+
+        dir1.setLastModified(dir1Modified + 10_000);
+        assertEquals(inDir1, new PathExecutableResolver(cacheFile).resolve("zipalign", path, false));
+    }
+
+    @Test
+    public void testStaleMemoizedFileIsIgnored() throws Exception {
+        File inDir2 = createFile(dir2, "zipalign", true);
+        assertEquals(inDir2, new PathExecutableResolver(cacheFile).resolve("zipalign", path, false));
+
+        long dir2Modified = dir2.lastModified();
+        inDir2.delete();
+        dir2.setLastModified(dir2Modified);
+        assertNull(new PathExecutableResolver(cacheFile).resolve("zipalign", path, false));
+    }
+
+    private static File createFile(File dir, String name, boolean executable) throws Exception {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), new byte[]{1});
+        assertTrue(file.setExecutable(executable));
+        return file;
+    }
+}